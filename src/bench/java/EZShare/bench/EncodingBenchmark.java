@@ -0,0 +1,104 @@
+package EZShare.bench;
+
+import EZShare.entities.Resource;
+import EZShare.networking.FrameCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compare frame codecs on batches of typical resources, as in a QUERY
+ * result stream or relayed subscription: bytes on the wire, and time to
+ * encode & decode.
+ *
+ * Usage: EncodingBenchmark [resources per batch] [rounds]
+ *
+ * Created on 2026/10/18.
+ */
+public class EncodingBenchmark {
+    private final static String[] WORDS = {
+            "lecture", "notes", "assignment", "distributed", "systems", "video",
+            "slides", "project", "report", "dataset", "archive", "music", "photo",
+    };
+
+    public static void main(String[] args) throws IOException {
+        int batchSize = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        List<Resource> batch = createBatch(batchSize, new Random(42));
+
+        System.out.printf("%d resources per batch, %d rounds%n", batchSize, rounds);
+        System.out.printf("%-14s %12s %12s %12s%n",
+                "codec", "bytes", "encode ms", "decode ms");
+        run("legacy json", FrameCodec.LEGACY, batch, rounds);
+        run("frame32 json", FrameCodec.FRAME32, batch, rounds);
+        run("frame32 smile", FrameCodec.FRAME32_SMILE, batch, rounds);
+    }
+
+    private static List<Resource> createBatch(int size, Random random) {
+        List<Resource> batch = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Resource resource = new Resource();
+            resource.setName(words(random, 3));
+            resource.setDescription(words(random, 20));
+            resource.setTags(Arrays.asList(words(random, 1), words(random, 1), words(random, 1)));
+            resource.setUri(String.format("http://www.example.com/%s/%d.html", words(random, 1), i));
+            resource.setChannel(i % 2 == 0 ? "" : "channel" + random.nextInt(10));
+            resource.setOwner(i % 3 == 0 ? "*" : "");
+            resource.setEzserver("server" + random.nextInt(8) + ".example.com:3780");
+            batch.add(resource);
+        }
+        return batch;
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                builder.append(' ');
+            builder.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return builder.toString();
+    }
+
+    private static void run(String name, FrameCodec codec, List<Resource> batch, int rounds)
+            throws IOException {
+        // Warm up.
+        for (int i = 0; i < rounds / 4 + 1; i++)
+            decodeAll(codec, encodeAll(codec, batch));
+
+        long bytes = 0;
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            List<ByteBuffer> frames = encodeAll(codec, batch);
+            long encoded = System.nanoTime();
+            decodeAll(codec, frames);
+            decodeNanos += System.nanoTime() - encoded;
+            encodeNanos += encoded - start;
+            bytes = frames.stream().mapToLong(ByteBuffer::remaining).sum();
+        }
+        System.out.printf("%-14s %12d %12.2f %12.2f%n", name, bytes,
+                encodeNanos / 1e6 / rounds, decodeNanos / 1e6 / rounds);
+    }
+
+    private static List<ByteBuffer> encodeAll(FrameCodec codec, List<Resource> batch)
+            throws IOException {
+        List<ByteBuffer> frames = new ArrayList<>(batch.size());
+        for (Resource resource : batch)
+            frames.add(codec.encode(resource));
+        return frames;
+    }
+
+    private static void decodeAll(FrameCodec codec, List<ByteBuffer> frames) throws IOException {
+        for (ByteBuffer frame : frames) {
+            ByteBuffer decoded = codec.decode(frame.duplicate());
+            if (codec.parse(decoded, Resource.class) == null)
+                throw new IllegalStateException("nothing decoded");
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package EZShare.bench;
+
+import EZShare.entities.*;
+import EZShare.networking.EZInputOutput;
+import EZShare.networking.Features;
+import EZShare.server.*;
+import EZShare.server.subscription.OverflowPolicy;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Check idle timeouts of connections that negotiated keep-alive, on both
+ * connection engines. Takes a bit more than a minute.
+ *
+ * On each engine, server A relays subscriptions to server B, which runs
+ * the engine. Then, with nothing sent for longer than the keep-alive
+ * timeout:
+ *  - a subscription on B with keep-alive negotiated, and the relayed one
+ *    from A to B, still receive a resource published on B;
+ *  - a connection that only sent HELLO is closed by the first command
+ *    timeout, not kept for the keep-alive timeout.
+ *
+ * Usage: KeepAliveCheck [port]
+ *
+ * Created on 2026/10/18.
+ */
+public class KeepAliveCheck {
+    // Longer than keep-alive timeout of servers.
+    private final static long IDLE_MILLIS = 65 * 1000;
+    // Longer than first command timeout, shorter than keep-alive timeout.
+    private final static long HELLO_ONLY_CLOSED_WITHIN_MILLIS = 40 * 1000;
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 3790;
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        Check blocking = new Check(ConnectionEngine.BLOCKING, port);
+        Check nio = new Check(ConnectionEngine.NIO, port + 4);
+        blocking.prepare();
+        nio.prepare();
+        Thread.sleep(IDLE_MILLIS);
+        boolean ok = blocking.verify() & nio.verify();
+        System.out.println(ok ? "all passed" : "FAILED");
+        // Server daemons leave non-daemon threads behind.
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static class Check {
+        final ConnectionEngine engine;
+        final Server serverA;
+        final Server serverB;
+        final AtomicInteger directReceived = new AtomicInteger();
+        final AtomicInteger relayedReceived = new AtomicInteger();
+        final CountDownLatch received = new CountDownLatch(2);
+        final AtomicLong helloOnlyClosedAfter = new AtomicLong(-1);
+
+        Check(ConnectionEngine engine, int port) {
+            this.engine = engine;
+            serverA = new Server("localhost", port);
+            serverB = new Server("localhost", port + 2);
+        }
+
+        void prepare() throws Exception {
+            start(serverA, ConnectionEngine.BLOCKING);
+            start(serverB, engine);
+            EZInputOutput io = new EZInputOutput(serverA, false);
+            io.sendJSON(new Exchange(Collections.singletonList(serverB)));
+            expectSuccess(io.readResponse());
+            io.close();
+
+            subscribe(serverB, false, directReceived);
+            subscribe(serverA, true, relayedReceived);
+
+            long start = System.currentTimeMillis();
+            EZInputOutput helloOnly = EZInputOutput.connect(serverB, false,
+                    Collections.singleton(Features.KEEPALIVE));
+            helloOnly.setTimeout(0);
+            readUntilClosed(helloOnly, () ->
+                    helloOnlyClosedAfter.set(System.currentTimeMillis() - start));
+        }
+
+        boolean verify() throws Exception {
+            Resource resource = new Resource();
+            resource.setName("keep-alive check");
+            resource.setUri("http://check.example/" + engine);
+            EZInputOutput io = new EZInputOutput(serverB, false);
+            io.sendJSON(new Publish(resource));
+            expectSuccess(io.readResponse());
+            io.close();
+            received.await(5, TimeUnit.SECONDS);
+
+            boolean ok = report("idle subscription", directReceived.get() == 1)
+                    & report("idle relayed subscription", relayedReceived.get() == 1);
+            long closedAfter = helloOnlyClosedAfter.get();
+            ok &= report(String.format("HELLO only closed (after %d ms)", closedAfter),
+                    closedAfter >= 0 && closedAfter < HELLO_ONLY_CLOSED_WITHIN_MILLIS);
+            return ok;
+        }
+
+        private boolean report(String name, boolean passed) {
+            System.out.printf("%-8s %-40s %s%n", engine, name, passed ? "ok" : "FAILED");
+            return passed;
+        }
+
+        private void subscribe(Server server, boolean relay, AtomicInteger counter)
+                throws IOException {
+            EZInputOutput io = EZInputOutput.connect(server, false,
+                    Collections.singleton(Features.KEEPALIVE));
+            io.sendJSON(new Subscribe(new Resource(), relay));
+            expectSuccess(io.readResponse());
+            io.setTimeout(0);
+            Thread thread = new Thread(() -> {
+                try {
+                    while (true)
+                        if (io.readMessage() instanceof Resource) {
+                            counter.incrementAndGet();
+                            received.countDown();
+                        }
+                } catch (IOException e) {
+                    // closed
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private static void readUntilClosed(EZInputOutput io, Runnable onClosed) {
+        Thread thread = new Thread(() -> {
+            try {
+                while (true)
+                    io.readMessage();
+            } catch (IOException e) {
+                onClosed.run();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void start(Server server, ConnectionEngine engine) throws Exception {
+        ServerOptions options = new ServerOptions(server.getHostname(), 0, 600,
+                server.getPort(), server.getPort() + 1, "secret", StorageBackend.MEMORY, null,
+                engine, ThreadMode.PLATFORM, null, null, 10 * 1000,
+                OverflowPolicy.DROP_OLDEST, 1000);
+        new ServerDaemon(options, StorageBackend.MEMORY.open(null)).startInBackground();
+    }
+
+    private static void expectSuccess(Response response) throws IOException {
+        if (!response.isSuccess())
+            throw new IOException("unexpected response: " + response);
+    }
+}
@@ -0,0 +1,116 @@
+package EZShare.bench;
+
+import EZShare.entities.*;
+import EZShare.networking.EZInputOutput;
+import EZShare.networking.SecurityHelper;
+import EZShare.server.*;
+import EZShare.server.subscription.OverflowPolicy;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measure latency of relayed queries on secure ports.
+ *
+ * Start two servers A and B, publish some resources on B, and let A know
+ * B by EXCHANGE. Then query A with relay, which makes two secure
+ * connections: from us to A, and from A to B.
+ *
+ * "cold" drops cached SSL contexts before each query, so that every
+ * connection loads the key store and does a full handshake, as every
+ * connection did before contexts were cached. "cached" shares contexts
+ * and resumes sessions.
+ *
+ * Usage: SecureRelayBenchmark [queries] [port]
+ *
+ * Created on 2026/10/18.
+ */
+public class SecureRelayBenchmark {
+    public static void main(String[] args) throws Exception {
+        int queries = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 3790;
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        ServerDaemon[] serverA = start(port, port + 1);
+        ServerDaemon[] serverB = start(port + 2, port + 3);
+        Server a = new Server("localhost", port + 1);
+        Server b = new Server("localhost", port + 3);
+        for (int i = 0; i < 10; i++) {
+            Resource resource = new Resource();
+            resource.setName("resource " + i);
+            resource.setUri("http://bench.example/" + i);
+            EZInputOutput io = new EZInputOutput(b, true);
+            io.sendJSON(new Publish(resource));
+            expectSuccess(io.readResponse());
+            io.close();
+        }
+        EZInputOutput io = new EZInputOutput(a, true);
+        io.sendJSON(new Exchange(Arrays.asList(b)));
+        expectSuccess(io.readResponse());
+        io.close();
+
+        System.out.printf("%d relayed queries%n", queries);
+        System.out.printf("%-8s %10s %10s %10s%n", "mode", "mean ms", "p50 ms", "p99 ms");
+        // Warm up.
+        run(a, queries / 4 + 1, true);
+        run(a, queries / 4 + 1, false);
+        report("cold", run(a, queries, true));
+        report("cached", run(a, queries, false));
+
+        for (ServerDaemon daemon : serverA)
+            daemon.stop();
+        for (ServerDaemon daemon : serverB)
+            daemon.stop();
+        // Server daemons leave non-daemon threads behind.
+        System.exit(0);
+    }
+
+    private static ServerDaemon[] start(int port, int sport) throws Exception {
+        ServerOptions options = new ServerOptions("localhost", 0, 600, port, sport,
+                "secret", StorageBackend.MEMORY, null, ConnectionEngine.BLOCKING,
+                ThreadMode.PLATFORM, null, null, 10 * 1000,
+                OverflowPolicy.DROP_OLDEST, 1000);
+        ResourceStorage storage = StorageBackend.MEMORY.open(null);
+        ServerDaemon daemon = new ServerDaemon(options, storage);
+        ServerDaemon secureDaemon = new ServerDaemon(options, storage, true);
+        daemon.startInBackground();
+        secureDaemon.startInBackground();
+        return new ServerDaemon[] {daemon, secureDaemon};
+    }
+
+    private static long[] run(Server server, int queries, boolean cold) throws IOException {
+        long[] latencies = new long[queries];
+        for (int i = 0; i < queries; i++) {
+            if (cold)
+                SecurityHelper.invalidate();
+            long start = System.nanoTime();
+            EZInputOutput io = new EZInputOutput(server, true);
+            io.sendJSON(new Query(new Resource(), true));
+            expectSuccess(io.readResponse());
+            int size = io.readResources(r -> {});
+            io.close();
+            latencies[i] = System.nanoTime() - start;
+            if (size == 0)
+                throw new IOException("nothing relayed");
+        }
+        return latencies;
+    }
+
+    private static void report(String mode, long[] latencies) {
+        Arrays.sort(latencies);
+        long sum = 0;
+        for (long latency : latencies)
+            sum += latency;
+        System.out.printf("%-8s %10.2f %10.2f %10.2f%n", mode,
+                sum / 1e6 / latencies.length,
+                latencies[latencies.length / 2] / 1e6,
+                latencies[(int) (latencies.length * 0.99)] / 1e6);
+    }
+
+    private static void expectSuccess(Response response) throws IOException {
+        if (!response.isSuccess())
+            throw new IOException("unexpected response: " + response);
+    }
+}
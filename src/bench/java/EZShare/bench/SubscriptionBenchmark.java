@@ -0,0 +1,119 @@
+package EZShare.bench;
+
+import EZShare.entities.Resource;
+import EZShare.entities.Server;
+import EZShare.entities.TemplateMatcher;
+import EZShare.server.ThreadMode;
+import EZShare.server.subscription.OverflowPolicy;
+import EZShare.server.subscription.Subscriber;
+import EZShare.server.subscription.SubscriptionService;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compare matching published resources with many subscriptions: testing
+ * every template one by one, and the subscription service.
+ *
+ * Templates are a mix of URI, owner, tag and name subscriptions over a
+ * few channels, as in a server with many clients watching a few things
+ * each. Report time to match all resources and deliveries made. The
+ * service also queues each delivery and hands it to the writer of its
+ * subscriber, on its pools.
+ *
+ * Usage: SubscriptionBenchmark [subscriptions] [resources]
+ *
+ * Created on 2026/10/18.
+ */
+public class SubscriptionBenchmark {
+    private final static String[] WORDS = {
+            "lecture", "notes", "assignment", "distributed", "systems", "video",
+            "slides", "project", "report", "dataset", "archive", "music", "photo",
+    };
+    private final static int URIS = 5000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int subscriptions = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int resources = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        Random random = new Random(42);
+        List<Resource> templates = new ArrayList<>(subscriptions);
+        for (int i = 0; i < subscriptions; i++)
+            templates.add(createTemplate(random));
+        List<Resource> published = new ArrayList<>(resources);
+        for (int i = 0; i < resources; i++)
+            published.add(createResource(random));
+
+        System.out.printf("%d subscriptions, %d resources%n", subscriptions, resources);
+        System.out.printf("%-10s %12s %12s%n", "matching", "ms", "deliveries");
+
+        List<TemplateMatcher> matchers = new ArrayList<>(subscriptions);
+        templates.forEach(t -> matchers.add(TemplateMatcher.compile(t)));
+        long start = System.nanoTime();
+        long expected = 0;
+        for (Resource resource : published)
+            for (TemplateMatcher matcher : matchers)
+                if (matcher.matches(resource))
+                    expected++;
+        System.out.printf("%-10s %12d %12d%n", "linear",
+                (System.nanoTime() - start) / 1000000, expected);
+
+        SubscriptionService service = new SubscriptionService(false, ThreadMode.PLATFORM,
+                new Server("localhost", 0), UUID.randomUUID().toString(),
+                OverflowPolicy.DROP_OLDEST, resources);
+        AtomicLong delivered = new AtomicLong();
+        List<Subscriber> subscribers = new ArrayList<>(subscriptions);
+        for (int i = 0; i < subscriptions; i++) {
+            Subscriber subscriber = service.addSubscriber(
+                    batch -> delivered.addAndGet(batch.size()), () -> { }, null);
+            subscriber.subscribe("id", templates.get(i), false);
+            subscribers.add(subscriber);
+        }
+        start = System.nanoTime();
+        published.forEach(service::notifyUpdatedResource);
+        while (delivered.get() < expected)
+            Thread.sleep(1);
+        System.out.printf("%-10s %12d %12d%n", "service",
+                (System.nanoTime() - start) / 1000000, delivered.get());
+        subscribers.forEach(service::removeSubscriber);
+        service.stop();
+    }
+
+    private static Resource createTemplate(Random random) {
+        Resource template = new Resource();
+        template.setChannel(random.nextInt(4) == 0 ? "channel" + random.nextInt(10) : "");
+        switch (random.nextInt(4)) {
+            case 0:
+                template.setUri(uri(random.nextInt(URIS)));
+                break;
+            case 1:
+                template.setOwner("owner" + random.nextInt(1000));
+                break;
+            case 2:
+                template.setTags(Collections.singletonList(WORDS[random.nextInt(WORDS.length)]));
+                break;
+            default:
+                template.setName(WORDS[random.nextInt(WORDS.length)]
+                        + " " + WORDS[random.nextInt(WORDS.length)]);
+        }
+        return template;
+    }
+
+    private static Resource createResource(Random random) {
+        Resource resource = new Resource();
+        resource.setName(WORDS[random.nextInt(WORDS.length)]
+                + " " + WORDS[random.nextInt(WORDS.length)]);
+        resource.setTags(Collections.singletonList(WORDS[random.nextInt(WORDS.length)]));
+        resource.setUri(uri(random.nextInt(URIS)));
+        resource.setChannel(random.nextInt(4) == 0 ? "channel" + random.nextInt(10) : "");
+        resource.setOwner(random.nextBoolean() ? "*" : "");
+        return resource;
+    }
+
+    private static String uri(int i) {
+        return String.format("http://www.example.com/%d.html", i);
+    }
+}
@@ -0,0 +1,98 @@
+package EZShare.bench;
+
+import EZShare.entities.*;
+import EZShare.networking.EZInputOutput;
+import EZShare.server.*;
+import EZShare.server.subscription.OverflowPolicy;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compare thread modes of server on many concurrent subscribers.
+ *
+ * For each mode, start a server, open some subscribers that subscribe to
+ * everything, publish some resources, and wait until every subscriber gets
+ * all of them. Report time taken and peak thread count of this JVM.
+ *
+ * Usage: ThreadModeBenchmark [subscribers] [resources] [port]
+ *
+ * Created on 2026/10/18.
+ */
+public class ThreadModeBenchmark {
+    public static void main(String[] args) throws Exception {
+        int subscribers = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int resources = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 3790;
+        Logger.getLogger("").setLevel(Level.WARNING);
+
+        System.out.printf("%d subscribers, %d resources%n", subscribers, resources);
+        System.out.printf("%-10s %12s %12s %12s%n",
+                "mode", "subscribe ms", "deliver ms", "peak threads");
+        for (ThreadMode mode : ThreadMode.values()) {
+            if (!mode.isSupported()) {
+                System.out.printf("%-10s not supported on this JVM%n", mode);
+                continue;
+            }
+            run(mode, port++, subscribers, resources);
+        }
+        // Server daemons leave non-daemon threads behind.
+        System.exit(0);
+    }
+
+    private static void run(ThreadMode mode, int port, int subscribers, int resources)
+            throws Exception {
+        ServerOptions options = new ServerOptions("localhost", 0, 600, port, port,
+                "secret", StorageBackend.MEMORY, null, ConnectionEngine.BLOCKING, mode,
+                null, null, 10 * 1000,
+                OverflowPolicy.DROP_OLDEST, 1000);
+        ServerDaemon daemon = new ServerDaemon(options, StorageBackend.MEMORY.open(null));
+        daemon.startInBackground();
+        Server server = new Server("localhost", port);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+
+        long start = System.nanoTime();
+        List<EZInputOutput> connections = new ArrayList<>(subscribers);
+        for (int i = 0; i < subscribers; i++) {
+            EZInputOutput io = new EZInputOutput(server, false, 0);
+            io.sendJSON(new Subscribe(new Resource(), false));
+            expectSuccess(io.readResponse());
+            connections.add(io);
+        }
+        long subscribed = System.nanoTime();
+
+        EZInputOutput publisher = new EZInputOutput(server, false);
+        for (int i = 0; i < resources; i++) {
+            Resource resource = new Resource();
+            resource.setName("resource " + i);
+            resource.setUri("http://bench.example/" + i);
+            // One command per connection.
+            if (i > 0)
+                publisher = new EZInputOutput(server, false);
+            publisher.sendJSON(new Publish(resource));
+            expectSuccess(publisher.readResponse());
+            publisher.close();
+        }
+        for (EZInputOutput io : connections)
+            for (int i = 0; i < resources; i++)
+                io.readJSON(Resource.class);
+        long delivered = System.nanoTime();
+
+        System.out.printf("%-10s %12d %12d %12d%n", mode,
+                (subscribed - start) / 1000000, (delivered - subscribed) / 1000000,
+                threads.getPeakThreadCount());
+        connections.forEach(EZInputOutput::close);
+        daemon.stop();
+    }
+
+    private static void expectSuccess(Response response) throws IOException {
+        if (!response.isSuccess())
+            throw new IOException("unexpected response: " + response);
+    }
+}
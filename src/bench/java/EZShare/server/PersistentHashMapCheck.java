@@ -0,0 +1,146 @@
+package EZShare.server;
+
+import java.util.*;
+
+/**
+ * Check {@link PersistentHashMap} against {@link HashMap} on random puts &
+ * removes, with keys of few distinct hashes, so that leaves get merged
+ * into deep nodes and collision nodes, and pulled up again on remove.
+ * Old maps are kept as snapshots and checked again at the end, they must
+ * not change.
+ *
+ * In EZShare.server as PersistentHashMap is package private, so run it by
+ * full name: gradle bench -Pbenchmark=EZShare.server.PersistentHashMapCheck
+ *
+ * Usage: PersistentHashMapCheck [operations] [seed]
+ *
+ * Created on 2026/10/18.
+ */
+public class PersistentHashMapCheck {
+    private final static int KEYS = 3000;
+    private final static int SNAPSHOT_INTERVAL = 5000;
+
+    /**
+     * Key with a given hash code, equal by ID only.
+     */
+    private static final class Key {
+        final int id;
+        final int hash;
+
+        Key(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d#%08x", id, hash);
+        }
+    }
+
+    public static void main(String[] args) {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+        System.out.printf("%d operations, seed %d%n", operations, seed);
+        Random random = new Random(seed);
+        Key[] keys = createKeys(random);
+
+        PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+        Map<Key, Integer> expected = new HashMap<>();
+        List<PersistentHashMap<Key, Integer>> snapshots = new ArrayList<>();
+        List<Map<Key, Integer>> expectedSnapshots = new ArrayList<>();
+        for (int i = 0; i < operations; i++) {
+            // Drift between mostly puts and mostly removes, so that the
+            // map grows full and shrinks to empty again several times.
+            double putRatio = Math.sin(i * 8 * Math.PI / operations) > 0 ? 0.7 : 0.3;
+            Key key = keys[random.nextInt(keys.length)];
+            if (random.nextDouble() < putRatio) {
+                // Few values, so that some puts change nothing.
+                Integer value = random.nextInt(4);
+                map = map.put(key, value);
+                expected.put(key, value);
+            } else {
+                map = map.remove(key);
+                expected.remove(key);
+            }
+            check(Objects.equals(map.get(key), expected.get(key)), "get after update", key);
+            check(map.size() == expected.size(), "size after update", key);
+            if (i % 997 == 0)
+                checkEqual(map, expected, keys);
+            if (i % SNAPSHOT_INTERVAL == 0) {
+                snapshots.add(map);
+                expectedSnapshots.add(new HashMap<>(expected));
+            }
+        }
+        checkEqual(map, expected, keys);
+
+        // Remove everything, in random order.
+        List<Key> remaining = new ArrayList<>(expected.keySet());
+        Collections.shuffle(remaining, random);
+        for (Key key : remaining) {
+            PersistentHashMap<Key, Integer> removed = map.remove(key);
+            check(removed != map && !removed.containsKey(key), "remove all", key);
+            check(removed.remove(key) == removed, "remove again is no-op", key);
+            map = removed;
+            expected.remove(key);
+            check(map.size() == expected.size(), "size on remove all", key);
+        }
+        check(map.isEmpty() && !map.entries().findAny().isPresent(), "empty at last", null);
+
+        for (int i = 0; i < snapshots.size(); i++)
+            checkEqual(snapshots.get(i), expectedSnapshots.get(i), keys);
+        System.out.printf("%d snapshots unchanged%n", snapshots.size());
+        System.out.println("all passed");
+    }
+
+    /**
+     * Half of the keys share 16 hashes, which differ only in a few high
+     * bits, so they collide fully or split deep in the trie. Others have
+     * random hashes.
+     */
+    private static Key[] createKeys(Random random) {
+        int base = random.nextInt();
+        int[] sharedHashes = new int[16];
+        for (int i = 0; i < sharedHashes.length; i++)
+            sharedHashes[i] = base ^ (Integer.reverse(i) >>> 1);
+        Key[] keys = new Key[KEYS];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = new Key(i, i % 2 == 0
+                    ? sharedHashes[random.nextInt(sharedHashes.length)] : random.nextInt());
+        return keys;
+    }
+
+    private static void checkEqual(PersistentHashMap<Key, Integer> map,
+                                   Map<Key, Integer> expected, Key[] keys) {
+        check(map.size() == expected.size(), "size", null);
+        for (Key key : keys) {
+            check(Objects.equals(map.get(key), expected.get(key)), "get", key);
+            check(map.containsKey(key) == expected.containsKey(key), "containsKey", key);
+        }
+        Map<Key, Integer> iterated = new HashMap<>();
+        map.forEach((key, value) ->
+                check(iterated.put(key, value) == null, "forEach visits once", key));
+        check(iterated.equals(expected), "forEach", null);
+        check(map.values().count() == expected.size(), "values", null);
+        Map<Key, Integer> entries = new HashMap<>();
+        map.entries().forEach(e -> entries.put(e.getKey(), e.getValue()));
+        check(entries.equals(expected), "entries", null);
+    }
+
+    private static void check(boolean passed, String name, Key key) {
+        if (passed)
+            return;
+        System.out.println("FAILED: " + name + (key == null ? "" : " on key " + key));
+        System.exit(1);
+    }
+}
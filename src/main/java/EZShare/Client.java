@@ -64,7 +64,10 @@ public class Client extends CLILauncher<ClientOptions> {
         Option uri = new Option("uri", true, "resource URI");
         Option secure = new Option("secure", "make a secure connection");
         Option subscribe = new Option("subscribe", "subscribe for resources from server");
+        Option timeout = new Option("timeout", true,
+                "seconds to wait for other servers on query");
         port.setType(Number.class);
+        timeout.setType(Number.class);
 
         options.addOption(channel);
         options.addOption(description);
@@ -84,6 +87,7 @@ public class Client extends CLILauncher<ClientOptions> {
         options.addOption(uri);
         options.addOption(secure);
         options.addOption(subscribe);
+        options.addOption(timeout);
         return options;
     }
 
@@ -113,6 +117,13 @@ public class Client extends CLILauncher<ClientOptions> {
             port = parsePortNumber((Number) line.getParsedOptionValue("port"));
         options.setPort(port);
 
+        if (line.hasOption("timeout")) {
+            double timeout = ((Number) line.getParsedOptionValue("timeout")).doubleValue();
+            if (timeout <= 0)
+                throw new ParseException("timeout must be positive.");
+            options.setTimeout((int) Math.ceil(timeout * 1000));
+        }
+
         if (line.hasOption("servers")) {
             List<Pair<String, Integer>> servers = new ArrayList<>();
             for (String server : line.getOptionValue("servers").split(",")) {
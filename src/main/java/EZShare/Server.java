@@ -1,17 +1,26 @@
 package EZShare;
 
+import EZShare.networking.SecurityHelper;
 import EZShare.networking.SecuritySetupException;
-import EZShare.server.MemoryResourceStorage;
+import EZShare.server.ConnectionEngine;
 import EZShare.server.ResourceStorage;
 import EZShare.server.ServerDaemon;
 import EZShare.server.ServerOptions;
+import EZShare.server.StorageBackend;
+import EZShare.server.ThreadMode;
+import EZShare.server.subscription.OverflowPolicy;
 import org.apache.commons.cli.*;
+import org.apache.commons.io.IOUtils;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,7 +42,20 @@ public class Server extends CLILauncher<ServerOptions> {
 
     @Override
     int run(ServerOptions options) {
-        ResourceStorage storage = new MemoryResourceStorage();
+        try {
+            SecurityHelper.setEnabledProtocols(options.getTlsProtocols());
+            SecurityHelper.setEnabledCipherSuites(options.getTlsCipherSuites());
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.SEVERE, "failed to setup TLS: " + e.getMessage());
+            return -2;
+        }
+        ResourceStorage storage;
+        try {
+            storage = options.getStorageBackend().open(options.getStorageDirectory());
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "failed to open storage: " + e);
+            return -2;
+        }
         ServerDaemon server = new ServerDaemon(options, storage);
         ServerDaemon secureServer = new ServerDaemon(options, storage, true);
         try {
@@ -48,6 +70,8 @@ public class Server extends CLILauncher<ServerOptions> {
         // TODO: Should program exit when any one of daemons exit?
         server.waitForStop();
         secureServer.waitForStop();
+        if (storage instanceof Closeable)
+            IOUtils.closeQuietly((Closeable) storage);
         return 0;
     }
 
@@ -67,9 +91,29 @@ public class Server extends CLILauncher<ServerOptions> {
                 "server secure port, an integer");
         Option secret = new Option("secret", true,
                 "secret");
+        Option storage = new Option("storage", true,
+                "where to keep resources, memory (default) or journal");
+        Option storageDir = new Option("storagedir", true,
+                "directory of journal storage");
+        Option engine = new Option("engine", true,
+                "connection engine, blocking (default) or nio");
+        Option threads = new Option("threads", true,
+                "run blocking tasks on platform (default) or virtual threads");
+        Option relayTimeout = new Option("relaytimeout", true,
+                "seconds to wait for other servers on relayed query");
+        Option tlsProtocols = new Option("tlsprotocols", true,
+                "comma-separated TLS protocols to enable, e.g. TLSv1.2,TLSv1.3");
+        Option tlsCiphers = new Option("tlsciphers", true,
+                "comma-separated TLS cipher suites to enable");
+        Option slowSubscriber = new Option("slowsubscriber", true,
+                "on a subscriber's full queue, drop-oldest (default), coalesce or disconnect");
+        Option subscriberQueue = new Option("subscriberqueue", true,
+                "resources queued for one subscriber at most");
 
         limit.setType(Number.class);
         interval.setType(Number.class);
+        relayTimeout.setType(Number.class);
+        subscriberQueue.setType(Number.class);
         port.setType(Number.class);
         sport.setType(Number.class);
 
@@ -79,6 +123,15 @@ public class Server extends CLILauncher<ServerOptions> {
         options.addOption(port);
         options.addOption(sport);
         options.addOption(secret);
+        options.addOption(storage);
+        options.addOption(storageDir);
+        options.addOption(engine);
+        options.addOption(threads);
+        options.addOption(relayTimeout);
+        options.addOption(tlsProtocols);
+        options.addOption(tlsCiphers);
+        options.addOption(slowSubscriber);
+        options.addOption(subscriberQueue);
         return options;
     }
 
@@ -87,7 +140,10 @@ public class Server extends CLILauncher<ServerOptions> {
         final int DEFAULT_PORT = 3780;
         final int DEFAULT_EXCHANGE_INTERVAL = 10 * 60;  // 10 minutes
         final double DEFAULT_CONNECTION_INTERVAL_LIMIT = 1.0;  // 1 second
+        final double DEFAULT_RELAY_TIMEOUT = 10.0;  // 10 seconds
         final int DEFAULT_SECRET_ENTROPY_BITS = 128;
+        final String DEFAULT_STORAGE_DIRECTORY = "ezshare-data";
+        final int DEFAULT_SUBSCRIBER_QUEUE_SIZE = 1000;
 
         String hostname = line.getOptionValue("advertisedhostname");
         if (hostname == null) {
@@ -122,7 +178,77 @@ public class Server extends CLILauncher<ServerOptions> {
             LOGGER.info("random secret generated: " + secret);
         }
 
-        return new ServerOptions(hostname, limit, interval, port, sport, secret);
+        StorageBackend storage = StorageBackend.MEMORY;
+        if (line.hasOption("storage")) {
+            try {
+                storage = StorageBackend.valueOf(line.getOptionValue("storage").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("unknown storage: " + line.getOptionValue("storage"));
+            }
+        }
+        File storageDir = new File(line.getOptionValue("storagedir", DEFAULT_STORAGE_DIRECTORY));
+
+        ConnectionEngine engine = ConnectionEngine.BLOCKING;
+        if (line.hasOption("engine")) {
+            try {
+                engine = ConnectionEngine.valueOf(line.getOptionValue("engine").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("unknown engine: " + line.getOptionValue("engine"));
+            }
+        }
+
+        ThreadMode threadMode = ThreadMode.PLATFORM;
+        if (line.hasOption("threads")) {
+            try {
+                threadMode = ThreadMode.valueOf(line.getOptionValue("threads").toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("unknown thread mode: " + line.getOptionValue("threads"));
+            }
+            if (!threadMode.isSupported())
+                throw new ParseException(threadMode.name().toLowerCase()
+                        + " threads are not supported on this JVM");
+        }
+
+        double relayTimeout = DEFAULT_RELAY_TIMEOUT;
+        if (line.hasOption("relaytimeout"))
+            relayTimeout = ((Number) line.getParsedOptionValue("relaytimeout")).doubleValue();
+        if (relayTimeout <= 0)
+            throw new ParseException("relay timeout must be positive.");
+
+        List<String> tlsProtocols = parseList(line.getOptionValue("tlsprotocols"));
+        List<String> tlsCiphers = parseList(line.getOptionValue("tlsciphers"));
+
+        OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        if (line.hasOption("slowsubscriber")) {
+            try {
+                overflowPolicy = OverflowPolicy.of(line.getOptionValue("slowsubscriber"));
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("unknown slow subscriber policy: "
+                        + line.getOptionValue("slowsubscriber"));
+            }
+        }
+
+        int subscriberQueue = DEFAULT_SUBSCRIBER_QUEUE_SIZE;
+        if (line.hasOption("subscriberqueue"))
+            subscriberQueue = ((Number) line.getParsedOptionValue("subscriberqueue")).intValue();
+        if (subscriberQueue <= 0)
+            throw new ParseException("subscriber queue size must be positive.");
+
+        return new ServerOptions(hostname, limit, interval, port, sport, secret,
+                storage, storageDir, engine, threadMode, tlsProtocols, tlsCiphers,
+                (int) (relayTimeout * 1000), overflowPolicy, subscriberQueue);
+    }
+
+    /**
+     * @return items of a comma-separated list, or null if value is null.
+     */
+    private static List<String> parseList(String value) throws ParseException {
+        if (value == null)
+            return null;
+        List<String> items = Arrays.asList(value.trim().split("\\s*,\\s*"));
+        if (items.contains(""))
+            throw new ParseException("empty item in list: " + value);
+        return items;
     }
 
 }
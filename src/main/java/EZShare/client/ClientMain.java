@@ -58,7 +58,7 @@ public class ClientMain {
                         cmdToSend = new Share(resource, options.getSecret());
                         break;
                     case QUERY:
-                        cmdToSend = new Query(resource, true);
+                        cmdToSend = new Query(resource, true, options.getTimeout());
                         break;
                     case FETCH:
                         cmdToSend = new Fetch(resource);
@@ -23,6 +23,7 @@ public class ClientOptions {
     private List<String> tags;
     private URI uri;
     private boolean secure;
+    private Integer timeout;
 
     public ClientOptions setCommand(Command.CMD command) {
         this.command = command;
@@ -79,6 +80,11 @@ public class ClientOptions {
         return this;
     }
 
+    public ClientOptions setTimeout(Integer timeout) {
+        this.timeout = timeout;
+        return this;
+    }
+
     public ClientOptions setSecure(boolean secure) {
         this.secure = secure;
         return this;
@@ -135,4 +141,12 @@ public class ClientOptions {
     public boolean isSecure() {
         return secure;
     }
+
+    /**
+     * @return milliseconds to wait for relayed results, or null for
+     * server's default.
+     */
+    public Integer getTimeout() {
+        return timeout;
+    }
 }
@@ -0,0 +1,200 @@
+package EZShare.entities;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * For JSON. A Bloom filter over resources of a server on the public
+ * channel (""), the only channel relayed queries look at.
+ *
+ * Keys are lower-cased tags, URIs, and trigrams of names & descriptions,
+ * so that a template can be tested without the resources: if any key it
+ * requires is absent, no resource of the server could match it. False
+ * positives only cost a useless query, there are no false negatives.
+ *
+ * Created on 2026/10/18.
+ */
+public class ContentSummary {
+    private final static int BITS_PER_KEY = 10;  // ~1% false positive
+    private final static int MIN_BITS = 512;
+    private final static int MAX_BITS = 1 << 19;  // 64 KiB
+    private final static int MAX_HASHES = 8;
+    private final static int GRAM = 3;
+    // Any resource at all, so that empty servers rule out everything.
+    private final static String ANY_KEY = "*";
+
+    private final byte[] bits;
+    private final int hashes;
+
+    @JsonCreator
+    public ContentSummary(@JsonProperty("bits") byte[] bits,
+                          @JsonProperty("hashes") int hashes) {
+        this.bits = bits;
+        this.hashes = hashes;
+    }
+
+    public byte[] getBits() {
+        return bits;
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+
+    /**
+     * @return false if received one is malformed and should be ignored.
+     */
+    @JsonIgnore
+    public boolean isValid() {
+        return bits != null && bits.length > 0 && Integer.bitCount(bits.length) == 1
+                && hashes > 0 && hashes <= MAX_HASHES;
+    }
+
+    /**
+     * Keys that a template requires from a matching resource, hashed.
+     */
+    public static class Probe {
+        // All must present.
+        private final long[] required;
+        // Any of them must present entirely, or null if not limited.
+        private final long[][] alternatives;
+
+        private Probe(long[] required, long[][] alternatives) {
+            this.required = required;
+            this.alternatives = alternatives;
+        }
+    }
+
+    /**
+     * @param template to test on summaries later.
+     * @return keys the template requires.
+     */
+    public static Probe probe(Resource template) {
+        Resource.Normalized t = template.getNormalized();
+        // Summary only covers public channel, and owner is not a key.
+        if (!t.channel.isEmpty() || !t.owner.isEmpty())
+            return new Probe(new long[0], null);
+        List<String> required = new ArrayList<>();
+        required.add(ANY_KEY);
+        t.lowerCaseTags.forEach(tag -> required.add("t:" + tag));
+        if (!t.uri.isEmpty())
+            required.add("u:" + t.uri);
+        long[][] alternatives = null;
+        // Matches on name or description, see TemplateMatcher.
+        if (!t.name.isEmpty() || !t.description.isEmpty()) {
+            List<long[]> alternativeList = new ArrayList<>(2);
+            if (!t.name.isEmpty())
+                alternativeList.add(hashGrams("n:", t.name));
+            if (!t.description.isEmpty())
+                alternativeList.add(hashGrams("d:", t.description));
+            alternatives = alternativeList.toArray(new long[0][]);
+        }
+        return new Probe(required.stream().mapToLong(ContentSummary::hash).toArray(),
+                alternatives);
+    }
+
+    /**
+     * @param probe of a template.
+     * @return false if no resource on the server could match the template.
+     */
+    public boolean mayMatch(Probe probe) {
+        for (long key : probe.required)
+            if (!mayContain(key))
+                return false;
+        if (probe.alternatives == null)
+            return true;
+        for (long[] alternative : probe.alternatives)
+            if (mayContainAll(alternative))
+                return true;
+        return false;
+    }
+
+    private boolean mayContainAll(long[] keys) {
+        for (long key : keys)
+            if (!mayContain(key))
+                return false;
+        return true;
+    }
+
+    private boolean mayContain(long key) {
+        int mask = bits.length * 8 - 1;
+        int h1 = (int) key;
+        int h2 = (int) (key >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            int index = (h1 + i * h2) & mask;
+            if ((bits[index >>> 3] & (1 << (index & 7))) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Build the summary of resources.
+     * @param resources on the public channel.
+     * @return summary of them.
+     */
+    public static ContentSummary of(Stream<Resource> resources) {
+        Set<Long> keys = new HashSet<>();
+        resources.forEach(resource -> {
+            Resource.Normalized r = resource.getNormalized();
+            keys.add(hash(ANY_KEY));
+            r.lowerCaseTags.forEach(tag -> keys.add(hash("t:" + tag)));
+            keys.add(hash("u:" + r.uri));
+            forEachGram(r.name, gram -> keys.add(hash("n:" + gram)));
+            forEachGram(r.description, gram -> keys.add(hash("d:" + gram)));
+        });
+        int bitCount = Math.max(MIN_BITS, keys.size() * BITS_PER_KEY);
+        bitCount = Math.min(MAX_BITS, Integer.highestOneBit(bitCount - 1) << 1);
+        int hashes = keys.isEmpty() ? 1 : (int) Math.round(
+                (double) bitCount / keys.size() * Math.log(2));
+        hashes = Math.max(1, Math.min(MAX_HASHES, hashes));
+        ContentSummary summary = new ContentSummary(new byte[bitCount / 8], hashes);
+        keys.forEach(summary::add);
+        return summary;
+    }
+
+    private void add(long key) {
+        int mask = bits.length * 8 - 1;
+        int h1 = (int) key;
+        int h2 = (int) (key >>> 32) | 1;
+        for (int i = 0; i < hashes; i++) {
+            int index = (h1 + i * h2) & mask;
+            bits[index >>> 3] |= 1 << (index & 7);
+        }
+    }
+
+    /**
+     * Substrings of the length GRAM. A template string that shorter than
+     * that has none, and rules out nothing.
+     */
+    private static void forEachGram(String string, Consumer<String> consumer) {
+        for (int i = 0; i + GRAM <= string.length(); i++)
+            consumer.accept(string.substring(i, i + GRAM));
+    }
+
+    private static long[] hashGrams(String prefix, String string) {
+        List<String> grams = new ArrayList<>();
+        forEachGram(string, grams::add);
+        return grams.stream().mapToLong(gram -> hash(prefix + gram)).toArray();
+    }
+
+    /**
+     * 64-bit FNV-1a.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,32 @@
+package EZShare.entities;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * For JSON. HELLO command, not in the original protocol.
+ * Sent as the first command of a connection to negotiate optional features.
+ * Server responds with the features it accepts, then both sides use them
+ * for the rest of the connection.
+ *
+ * Created on 2026/10/18.
+ */
+public class Hello extends Command {
+    private final List<String> features;
+
+    @JsonCreator
+    public Hello(@JsonProperty("features") List<String> features) {
+        this.features = features;
+    }
+
+    public List<String> getFeatures() {
+        return features;
+    }
+
+    @Override
+    public CMD getCMD() {
+        return CMD.HELLO;
+    }
+}
@@ -0,0 +1,97 @@
+package EZShare.entities;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * For JSON. A subscribed resource with where it comes from, sent in place
+ * of the bare resource to peers that negotiated
+ * {@link EZShare.networking.Features#NOTIFICATION}.
+ *
+ * Origin and sequence number identify an update across servers, so that
+ * one arrived over several paths is delivered once. Via lists servers that
+ * have relayed it, so that it's never sent back to any of them. Servers
+ * are named by their epochs (see {@link Response#getEpoch()}), random IDs
+ * made on start, as "hostname:port" may be shared by distinct servers.
+ *
+ * Created on 2026/10/18.
+ */
+public class Notification {
+    private final Resource resource;
+    private final String origin;
+    private final long seq;
+    private final List<String> via;
+
+    @JsonCreator
+    public Notification(@JsonProperty("notification") Resource resource,
+                        @JsonProperty("origin") String origin,
+                        @JsonProperty("seq") long seq,
+                        @JsonProperty("via") List<String> via) {
+        this.resource = resource;
+        this.origin = origin;
+        this.seq = seq;
+        this.via = via == null ? Collections.emptyList() : via;
+    }
+
+    @JsonProperty("notification")
+    public Resource getResource() {
+        return resource;
+    }
+
+    /**
+     * @return server where the resource was published.
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    /**
+     * @return servers relayed through, after origin.
+     */
+    public List<String> getVia() {
+        return via;
+    }
+
+    /**
+     * @return false if received one is malformed and should be ignored.
+     */
+    @JsonIgnore
+    public boolean isValid() {
+        return resource != null && origin != null;
+    }
+
+    /**
+     * @return identity of the update, unique among servers.
+     */
+    @JsonIgnore
+    public String getId() {
+        return origin + '/' + seq;
+    }
+
+    /**
+     * @param server that relays it.
+     * @return a copy with the server appended to via.
+     */
+    public Notification relayedBy(String server) {
+        List<String> servers = new ArrayList<>(via.size() + 1);
+        servers.addAll(via);
+        servers.add(server);
+        return new Notification(resource, origin, seq, servers);
+    }
+
+    /**
+     * @return true if the server is the origin or has relayed it.
+     */
+    public boolean hasPassed(String server) {
+        return origin.equals(server) || via.contains(server);
+    }
+}
@@ -0,0 +1,39 @@
+package EZShare.entities;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * For JSON. PING command, not in the original protocol.
+ * Probe whether a server is alive. With a target, ask the server to probe
+ * the target on our behalf, and respond success only if the target is
+ * alive (indirect probe).
+ *
+ * Created on 2026/10/18.
+ */
+public class Ping extends Command {
+    private final Server target;
+
+    @JsonCreator
+    public Ping(@JsonProperty("target") Server target) {
+        this.target = target;
+    }
+
+    public Ping() {
+        this(null);
+    }
+
+    /**
+     * @return server to probe, or null to probe the receiver itself.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Server getTarget() {
+        return target;
+    }
+
+    @Override
+    public CMD getCMD() {
+        return CMD.PING;
+    }
+}
@@ -1,6 +1,7 @@
 package EZShare.entities;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
@@ -9,16 +10,49 @@ import com.fasterxml.jackson.annotation.JsonProperty;
  */
 public class Query extends CommandWithResourceTemplate {
     private final boolean relay;
+    private final Integer timeout;
+    private final Boolean summary;
 
     public boolean isRelay() {
         return relay;
     }
 
+    /**
+     * @return milliseconds that client would wait for relayed results at
+     * most, or null to leave it to server. Optional, an extension.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @return true if client wants {@link ContentSummary} of server with
+     * the result size. Optional, an extension, only sent to servers that
+     * accepted {@link EZShare.networking.Features#SUMMARY}.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Boolean getSummary() {
+        return summary;
+    }
+
     @JsonCreator
     public Query(@JsonProperty("resourceTemplate") Resource resourceTemplate,
-                 @JsonProperty("relay") boolean relay) {
+                 @JsonProperty("relay") boolean relay,
+                 @JsonProperty("timeout") Integer timeout,
+                 @JsonProperty("summary") Boolean summary) {
         super(resourceTemplate);
         this.relay = relay;
+        this.timeout = timeout;
+        this.summary = summary;
+    }
+
+    public Query(Resource resourceTemplate, boolean relay, Integer timeout) {
+        this(resourceTemplate, relay, timeout, null);
+    }
+
+    public Query(Resource resourceTemplate, boolean relay) {
+        this(resourceTemplate, relay, null);
     }
 
     /**
@@ -8,7 +8,9 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -30,6 +32,8 @@ public class Resource {
     // resourceSize only appears in FETCH response.
     // The bytes of the file.
     private long resourceSize;
+    // Cache for TemplateMatcher, built on first use & reset by setters.
+    private Normalized normalized;
 
     @JsonCreator
     public Resource() {
@@ -66,6 +70,7 @@ public class Resource {
 
     public void setName(String name) {
         this.name = name;
+        normalized = null;
     }
 
     public List<String> getTags() {
@@ -76,6 +81,7 @@ public class Resource {
 
     public void setTags(List<String> tags) {
         this.tags = tags;
+        normalized = null;
     }
 
     public String getDescription() {
@@ -84,6 +90,7 @@ public class Resource {
 
     public void setDescription(String description) {
         this.description = description;
+        normalized = null;
     }
 
     public String getUri() {
@@ -101,6 +108,7 @@ public class Resource {
 
     public void setUri(String uri) {
         this.uri = uri;
+        normalized = null;
     }
 
     public String getChannel() {
@@ -109,6 +117,7 @@ public class Resource {
 
     public void setChannel(String channel) {
         this.channel = channel;
+        normalized = null;
     }
 
     public String getOwner() {
@@ -117,6 +126,7 @@ public class Resource {
 
     public void setOwner(String owner) {
         this.owner = owner;
+        normalized = null;
     }
 
     public String getEzserver() {
@@ -150,42 +160,46 @@ public class Resource {
 
     /**
      * Test this resource with template.
+     * Use {@link TemplateMatcher} instead to test many resources with one
+     * template.
      * @param template to match.
      * @return whether it match with template.
      */
     public boolean matchWithTemplate(Resource template) {
-        // The template channel equals (case sensitive) the resource channel
-        if (!getChannel().equals(template.getChannel()))
-            return false;
-        // If the template contains an owner that is not "",
-        // then the candidate owner must equal it (case sensitive)
-        if ((!template.getOwner().isEmpty())
-                && (!getOwner().equals(template.getOwner())))
-            return false;
-        // Any tags present in the template also are present in the candidate (case insensitive):
-        if (!getTags().stream().map(String::toLowerCase)
-                .collect(Collectors.toSet()).containsAll(
-                        template.getTags().stream()
-                                .map(String::toLowerCase)
-                                .collect(Collectors.toSet())))
-            return false;
-        // If the template contains a URI then the candidate URI matches (case sensitive)
-        if (!(template.getUri().isEmpty() || getUri().equals(template.getUri())))
-            return false;
-        return (
-                // The candidate name contains the template name as a substring
-                // (for non "" template name)
-                // TODO: case insensitive?
-                (!template.getName().isEmpty()
-                        && getName().contains(template.getName())) ||
-                // The candidate description contains the template description as a substring
-                // (for non "" template descriptions)
-                (!template.getDescription().isEmpty()
-                        && getDescription().contains(template.getDescription())) ||
-                // The template description and name are both ""
-                (template.getName().isEmpty()
-                        && template.getDescription().isEmpty())
-        );
+        return TemplateMatcher.compile(template).matches(this);
+    }
+
+    @JsonIgnore
+    Normalized getNormalized() {
+        Normalized n = normalized;
+        if (n == null)
+            normalized = n = new Normalized(this);
+        return n;
+    }
+
+    /**
+     * Trimmed fields & lower-cased tags of a resource.
+     * Immutable, safe to share between threads.
+     */
+    static class Normalized {
+        final String name;
+        final String description;
+        final String uri;
+        final String channel;
+        final String owner;
+        final Set<String> lowerCaseTags;
+
+        private Normalized(Resource resource) {
+            name = resource.getName();
+            description = resource.getDescription();
+            uri = resource.getUri();
+            channel = resource.getChannel();
+            owner = resource.getOwner();
+            lowerCaseTags = new HashSet<>();
+            resource.getTags().stream()
+                    .map(String::toLowerCase)
+                    .forEach(lowerCaseTags::add);
+        }
     }
 
     @Override
@@ -0,0 +1,37 @@
+package EZShare.entities;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * For JSON. Several resources in one message, in place of sending them one
+ * by one in a QUERY result or on a subscription. Only sent to peers that
+ * negotiated {@link EZShare.networking.Features#BATCH}. Either resources
+ * or {@link Notification}s, not both.
+ *
+ * Created on 2026/10/18.
+ */
+public class ResourceBatch {
+    private final List<Resource> resources;
+    private final List<Notification> notifications;
+
+    @JsonCreator
+    public ResourceBatch(@JsonProperty("resources") List<Resource> resources,
+                         @JsonProperty("notifications") List<Notification> notifications) {
+        this.resources = resources;
+        this.notifications = notifications;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public List<Resource> getResources() {
+        return resources;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public List<Notification> getNotifications() {
+        return notifications;
+    }
+}
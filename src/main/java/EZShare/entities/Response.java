@@ -5,6 +5,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.util.List;
+
 /**
  * For JSON. Server's response to a request command.
  * Either success or error. Error response has a errorMessage.
@@ -17,6 +19,9 @@ public class Response {
     private String response;
     private String errorMessage;
     private String id;
+    private List<String> features;
+    private ContentSummary summary;
+    private String epoch;
 
     public String getResponse() {
         return response;
@@ -44,6 +49,45 @@ public class Response {
         this.id = id;
     }
 
+    /**
+     * @return features accepted by server, only in response to HELLO.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public List<String> getFeatures() {
+        return features;
+    }
+
+    private void setFeatures(List<String> features) {
+        this.features = features;
+    }
+
+    /**
+     * @return summary of server, only in response to EXCHANGE on
+     * connections with {@link EZShare.networking.Features#SUMMARY}.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public ContentSummary getSummary() {
+        return summary;
+    }
+
+    private void setSummary(ContentSummary summary) {
+        this.summary = summary;
+    }
+
+    /**
+     * @return epoch of server list of server, which changes on restart,
+     * only in response to EXCHANGE on connections with
+     * {@link EZShare.networking.Features#MEMBERSHIP}.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getEpoch() {
+        return epoch;
+    }
+
+    private void setEpoch(String epoch) {
+        this.epoch = epoch;
+    }
+
     @JsonIgnore
     public boolean isSuccess() {
         return getResponse() != null && getResponse().toLowerCase().equals(RESPONSE_SUCCESS);
@@ -64,6 +108,25 @@ public class Response {
         return response;
     }
 
+    public static Response createSuccessWithFeatures(List<String> features) {
+        Response response = new Response();
+        response.setFeatures(features);
+        response.setResponse(RESPONSE_SUCCESS);
+        return response;
+    }
+
+    /**
+     * @param summary of server, maybe null.
+     * @param epoch of server list, maybe null.
+     */
+    public static Response createSuccessOnExchange(ContentSummary summary, String epoch) {
+        Response response = new Response();
+        response.setSummary(summary);
+        response.setEpoch(epoch);
+        response.setResponse(RESPONSE_SUCCESS);
+        return response;
+    }
+
     @JsonCreator
     public static Response createError(@JsonProperty("errorMessage") String errorMessage) {
         Response response = new Response();
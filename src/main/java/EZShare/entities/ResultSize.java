@@ -1,6 +1,7 @@
 package EZShare.entities;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
@@ -9,15 +10,58 @@ import com.fasterxml.jackson.annotation.JsonProperty;
  */
 public class ResultSize {
     private final int resultSize;
+    private final Integer peersQueried;
+    private final Integer peersAnswered;
+    private final ContentSummary summary;
 
     @JsonProperty("resultSize")
     public int get() {
         return resultSize;
     }
 
+    /**
+     * @return number of servers that a relayed query sent to, or null if
+     * not relayed.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getPeersQueried() {
+        return peersQueried;
+    }
+
+    /**
+     * @return number of servers that answered a relayed query in time, or
+     * null if not relayed.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public Integer getPeersAnswered() {
+        return peersAnswered;
+    }
+
+    /**
+     * @return summary of server, only if the query asked for it, or null.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public ContentSummary getSummary() {
+        return summary;
+    }
+
     @JsonCreator
-    public ResultSize(@JsonProperty("resultSize") int size) {
+    public ResultSize(@JsonProperty("resultSize") int size,
+                      @JsonProperty("peersQueried") Integer peersQueried,
+                      @JsonProperty("peersAnswered") Integer peersAnswered,
+                      @JsonProperty("summary") ContentSummary summary) {
         this.resultSize = size;
+        this.peersQueried = peersQueried;
+        this.peersAnswered = peersAnswered;
+        this.summary = summary;
+    }
+
+    public ResultSize(int size, Integer peersQueried, Integer peersAnswered) {
+        this(size, peersQueried, peersAnswered, null);
+    }
+
+    public ResultSize(int size) {
+        this(size, null, null);
     }
 
 }
@@ -1,6 +1,7 @@
 package EZShare.entities;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.UUID;
@@ -11,6 +12,7 @@ import java.util.UUID;
 public class Subscribe extends CommandWithResourceTemplate {
     private final boolean relay;
     private final String id;
+    private final String server;
 
     @JsonCreator
     public Subscribe(@JsonProperty("resourceTemplate") Resource resourceTemplate,
@@ -18,6 +20,23 @@ public class Subscribe extends CommandWithResourceTemplate {
         super(resourceTemplate);
         this.relay = relay;
         id = UUID.randomUUID().toString();
+        server = null;
+    }
+
+    private Subscribe(Subscribe subscribe, String server) {
+        super(subscribe.getResourceTemplate());
+        relay = subscribe.relay;
+        id = subscribe.id;
+        this.server = server;
+    }
+
+    /**
+     * @param server epoch of us, see {@link Notification}.
+     * @return a copy with the subscribing server named, to peers that
+     * negotiated {@link EZShare.networking.Features#NOTIFICATION} only.
+     */
+    public Subscribe fromServer(String server) {
+        return new Subscribe(this, server);
     }
 
     @Override
@@ -32,4 +51,13 @@ public class Subscribe extends CommandWithResourceTemplate {
     public boolean isRelay() {
         return relay;
     }
+
+    /**
+     * @return the server that subscribes on behalf of its clients, or null
+     * if not from a server, see {@link Notification}.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getServer() {
+        return server;
+    }
 }
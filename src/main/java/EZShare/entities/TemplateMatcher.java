@@ -0,0 +1,94 @@
+package EZShare.entities;
+
+import java.util.Arrays;
+
+/**
+ * A resource template compiled for matching with many resources.
+ *
+ * Template's fields are trimmed and its tags are lower-cased once on
+ * compiling, and resources' on their first matching, so that matching
+ * one resource allocates nothing.
+ *
+ * Created on 2026/10/18.
+ */
+public class TemplateMatcher {
+    private final String channel;
+    private final String owner;
+    private final String[] lowerCaseTags;
+    private final String uri;
+    private final String name;
+    private final String description;
+
+    private TemplateMatcher(Resource template) {
+        channel = template.getChannel();
+        owner = template.getOwner();
+        lowerCaseTags = template.getNormalized().lowerCaseTags.toArray(new String[0]);
+        uri = template.getUri();
+        name = template.getName();
+        description = template.getDescription();
+    }
+
+    public static TemplateMatcher compile(Resource template) {
+        return new TemplateMatcher(template);
+    }
+
+    /**
+     * Test a template with this one, without any resource.
+     * @param other template.
+     * @return true if every resource that matches the other template also
+     * matches this one.
+     */
+    public boolean covers(TemplateMatcher other) {
+        if (!channel.equals(other.channel))
+            return false;
+        if (!owner.isEmpty() && !owner.equals(other.owner))
+            return false;
+        if (!Arrays.asList(other.lowerCaseTags).containsAll(Arrays.asList(lowerCaseTags)))
+            return false;
+        if (!uri.isEmpty() && !uri.equals(other.uri))
+            return false;
+        if (name.isEmpty() && description.isEmpty())
+            return true;
+        if (other.name.isEmpty() && other.description.isEmpty())
+            return false;
+        // Each of name & description that the other may match on must
+        // contain ours, so that ours is matched too.
+        return (other.name.isEmpty() || !name.isEmpty() && other.name.contains(name)) &&
+                (other.description.isEmpty() ||
+                        !description.isEmpty() && other.description.contains(description));
+    }
+
+    /**
+     * Test a resource with this template.
+     * @param resource to test.
+     * @return whether it match with template.
+     */
+    public boolean matches(Resource resource) {
+        Resource.Normalized candidate = resource.getNormalized();
+        // The template channel equals (case sensitive) the resource channel
+        if (!candidate.channel.equals(channel))
+            return false;
+        // If the template contains an owner that is not "",
+        // then the candidate owner must equal it (case sensitive)
+        if (!owner.isEmpty() && !candidate.owner.equals(owner))
+            return false;
+        // Any tags present in the template also are present in the candidate (case insensitive):
+        for (String tag : lowerCaseTags)
+            if (!candidate.lowerCaseTags.contains(tag))
+                return false;
+        // If the template contains a URI then the candidate URI matches (case sensitive)
+        if (!(uri.isEmpty() || candidate.uri.equals(uri)))
+            return false;
+        return (
+                // The candidate name contains the template name as a substring
+                // (for non "" template name)
+                // TODO: case insensitive?
+                (!name.isEmpty() && candidate.name.contains(name)) ||
+                // The candidate description contains the template description as a substring
+                // (for non "" template descriptions)
+                (!description.isEmpty() && candidate.description.contains(description)) ||
+                // The template description and name are both ""
+                (name.isEmpty() && description.isEmpty())
+        );
+    }
+}
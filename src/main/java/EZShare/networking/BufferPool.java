@@ -0,0 +1,51 @@
+package EZShare.networking;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reuse buffers for copying file contents to network.
+ * Created on 2026/10/18.
+ */
+public class BufferPool {
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static int MAX_POOLED_BUFFERS = 64;
+
+    /**
+     * Buffers backed by arrays, for writing to streams.
+     */
+    public final static BufferPool HEAP = new BufferPool(false);
+    /**
+     * Direct buffers, for writing to channels.
+     */
+    public final static BufferPool DIRECT = new BufferPool(true);
+
+    private final boolean direct;
+    private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledCount = new AtomicInteger();
+
+    private BufferPool(boolean direct) {
+        this.direct = direct;
+    }
+
+    /**
+     * @return a cleared buffer, must be given back with {@link #release(ByteBuffer)}.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null)
+            return direct ? ByteBuffer.allocateDirect(BUFFER_SIZE) : ByteBuffer.allocate(BUFFER_SIZE);
+        pooledCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (pooledCount.incrementAndGet() <= MAX_POOLED_BUFFERS)
+            buffers.add(buffer);
+        else
+            pooledCount.decrementAndGet();
+    }
+}
@@ -0,0 +1,271 @@
+package EZShare.networking;
+
+import EZShare.entities.Response;
+import EZShare.entities.Server;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Keep connections to other servers open and reuse them for following
+ * commands, to save connection setup (and TLS handshake) per command.
+ *
+ * Only connections that negotiated {@link Features#KEEPALIVE} are kept,
+ * others are closed after use as before. Idle connections are closed
+ * after a while, earlier than servers give up on them, and checked with
+ * {@link EZInputOutput#isStale()} before reuse.
+ *
+ * Created on 2026/10/18.
+ */
+public class ConnectionPool {
+    private final static Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+    private final static int MAX_IDLE_PER_SERVER = 8;
+    // Less than server side keep-alive timeout.
+    private final static long IDLE_TIMEOUT_MILLIS = 30 * 1000;
+
+    private static class Idle {
+        final EZInputOutput io;
+        final long since = System.currentTimeMillis();
+
+        Idle(EZInputOutput io) {
+            this.io = io;
+        }
+    }
+
+    /**
+     * A connection borrowed from the pool, with the first response of the
+     * command sent on it.
+     *
+     * Call {@link #release()} after everything of the command is read, so
+     * that the connection goes back to the pool, otherwise it is closed on
+     * {@link #close()}.
+     */
+    public class Lease implements AutoCloseable {
+        private final Server server;
+        private final EZInputOutput io;
+        private Response response;
+        private boolean released;
+
+        private Lease(Server server, EZInputOutput io) {
+            this.server = server;
+            this.io = io;
+        }
+
+        public EZInputOutput getIO() {
+            return io;
+        }
+
+        public Response getResponse() {
+            return response;
+        }
+
+        public void release() {
+            released = true;
+            ConnectionPool.this.release(server, io);
+        }
+
+        @Override
+        public void close() {
+            if (!released)
+                io.close();
+        }
+    }
+
+    private final boolean secure;
+    private final int timeout;
+    private final Set<String> features;
+    private final ConcurrentHashMap<Server, Deque<Idle>> idle = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "connection-pool-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean closed;
+
+    /**
+     * @param secure whether to connect secure ports.
+     * @param timeout of socket in milliseconds, by default.
+     * @param features to negotiate, {@link Features#KEEPALIVE} is added.
+     */
+    public ConnectionPool(boolean secure, int timeout, Collection<String> features) {
+        this.secure = secure;
+        this.timeout = timeout;
+        this.features = new HashSet<>(features);
+        this.features.add(Features.KEEPALIVE);
+        evictor.scheduleWithFixedDelay(this::evictIdle,
+                IDLE_TIMEOUT_MILLIS, IDLE_TIMEOUT_MILLIS / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send a command and read its first response, on an idle connection if
+     * any. If a reused connection fails, the command is sent again on
+     * another one, or a new connection, so that commands must be safe to
+     * repeat. All tries share the timeout. A timeout on a reused connection
+     * is not retried, the server is likely down, and its idle connections
+     * are closed.
+     * @param server to send to.
+     * @param command to send.
+     * @param timeout in milliseconds, in total for connecting and reading
+     *                the first response.
+     * @return the lease of connection, must be closed by caller.
+     * @throws IOException if error on networking.
+     */
+    public Lease send(Server server, Object command, int timeout) throws IOException {
+        return send(server, features -> command, timeout);
+    }
+
+    /**
+     * Same as {@link #send(Server, Object, int)}, but the command is made
+     * for features of the connection it is going to be sent on.
+     * @param command made from features accepted by the server.
+     */
+    public Lease send(Server server, Function<Set<String>, ?> command, int timeout)
+            throws IOException {
+        long deadline = System.currentTimeMillis() + timeout;
+        EZInputOutput io;
+        while ((io = poll(server)) != null) {
+            Lease lease = new Lease(server, io);
+            try {
+                return send(lease, command.apply(io.getFeatures()), remaining(deadline));
+            } catch (SocketTimeoutException e) {
+                closeIdle(server);
+                throw e;
+            } catch (IOException e) {
+                LOGGER.fine(String.format("reused connection to %s failed: %s", server, e));
+            }
+        }
+        io = EZInputOutput.connect(server, secure, remaining(deadline), features);
+        return send(new Lease(server, io), command.apply(io.getFeatures()), remaining(deadline));
+    }
+
+    /**
+     * @return milliseconds left before deadline.
+     * @throws SocketTimeoutException if none left.
+     */
+    private static int remaining(long deadline) throws SocketTimeoutException {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0)
+            throw new SocketTimeoutException("timeout on sending to server");
+        return (int) remaining;
+    }
+
+    /**
+     * @return false if the server is known not to keep connections alive,
+     * so that every command takes a new connection.
+     */
+    public boolean isReusable(Server server) {
+        Set<String> known = PeerCapabilities.get(server);
+        return known == null || known.contains(Features.KEEPALIVE);
+    }
+
+    /**
+     * Same as {@link #send(Server, Object, int)}, with the default timeout
+     * of this pool.
+     */
+    public Lease send(Server server, Object command) throws IOException {
+        return send(server, command, timeout);
+    }
+
+    private Lease send(Lease lease, Object command, int timeout) throws IOException {
+        try {
+            lease.io.setTimeout(timeout);
+            lease.io.sendJSON(command);
+            lease.response = lease.io.readResponse();
+            return lease;
+        } catch (IOException e) {
+            lease.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return a healthy idle connection to the server, or null if none.
+     */
+    private EZInputOutput poll(Server server) {
+        Deque<Idle> connections = idle.get(server);
+        if (connections == null)
+            return null;
+        long now = System.currentTimeMillis();
+        while (true) {
+            Idle connection;
+            synchronized (connections) {
+                // Most recently used first, it's least likely to be closed.
+                connection = connections.pollFirst();
+            }
+            if (connection == null)
+                return null;
+            if (now - connection.since < IDLE_TIMEOUT_MILLIS && !connection.io.isStale())
+                return connection.io;
+            connection.io.close();
+        }
+    }
+
+    /**
+     * Close all idle connections to the server.
+     */
+    private void closeIdle(Server server) {
+        Deque<Idle> connections = idle.get(server);
+        if (connections == null)
+            return;
+        synchronized (connections) {
+            connections.forEach(connection -> connection.io.close());
+            connections.clear();
+        }
+    }
+
+    private void release(Server server, EZInputOutput io) {
+        if (closed || !io.getFeatures().contains(Features.KEEPALIVE)) {
+            io.close();
+            return;
+        }
+        Deque<Idle> connections = idle.computeIfAbsent(server, s -> new ArrayDeque<>());
+        synchronized (connections) {
+            if (connections.size() < MAX_IDLE_PER_SERVER) {
+                connections.addFirst(new Idle(io));
+                return;
+            }
+        }
+        io.close();
+    }
+
+    /**
+     * Close connections idle for too long.
+     */
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        for (Deque<Idle> connections : idle.values()) {
+            synchronized (connections) {
+                Iterator<Idle> iterator = connections.descendingIterator();
+                while (iterator.hasNext()) {
+                    Idle connection = iterator.next();
+                    if (now - connection.since < IDLE_TIMEOUT_MILLIS)
+                        break;
+                    iterator.remove();
+                    connection.io.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Close all idle connections and stop evicting. Leased connections are
+     * closed on release.
+     */
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        idle.keySet().forEach(this::closeIdle);
+    }
+}
@@ -7,8 +7,16 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.io.IOUtils;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -18,14 +26,27 @@ import java.util.logging.Logger;
 public class EZInputOutput {
     private final static Logger LOGGER = Logger.getLogger(EZInputOutput.class.getName());
     private final static int DEFAULT_SOCKET_TIMEOUT = 30 * 1000;  // 30 seconds
+    /**
+     * Max size of a frame in {@link Features#FRAME32} mode.
+     */
+    public final static int MAX_FRAME32_SIZE = 16 * 1024 * 1024;
 
-    private final ObjectMapper mapper = ObjectMapperGetter.get();
+    private volatile ObjectMapper mapper = ObjectMapperGetter.get();
     private final Socket socket;
     private final DataInputStream inputStream;
     private final DataOutputStream outputStream;
 
     private String readBufferedLine;
 
+    private volatile Set<String> features = Collections.emptySet();
+    private volatile boolean frame32;
+    // Guarded by themselves, created on first use in frame32 mode.
+    private FrameBuffer inFrame;
+    private FrameBuffer outFrame;
+    private boolean hasBufferedFrame;
+    // Rest of the last ResourceBatch read, guarded by inFrame.
+    private final Deque<Object> batchedMessages = new ArrayDeque<>();
+
     public EZInputOutput(Socket socket, int timeout) throws IOException {
         this.socket = socket;
         socket.setSoTimeout(timeout);
@@ -41,13 +62,19 @@ public class EZInputOutput {
         if (secure) {
             try {
                 socket = SecurityHelper.getClient()
-                        .getSSLContext().getSocketFactory()
-                        .createSocket(server.getHostname(), server.getPort());
+                        .createSocket(server.getHostname(), server.getPort(), timeout);
             } catch (SecuritySetupException e) {
                 throw new IOException(e);
             }
         } else {
-            socket = new Socket(server.getHostname(), server.getPort());
+            socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(server.getHostname(), server.getPort()),
+                        timeout);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
         }
         socket.setSoTimeout(timeout);
         inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
@@ -58,16 +85,119 @@ public class EZInputOutput {
         this(server, secure, DEFAULT_SOCKET_TIMEOUT);
     }
 
+    /**
+     * Connect to server and negotiate optional features by HELLO command.
+     *
+     * Servers that don't know HELLO respond an error then close the
+     * connection. No new connection is made right away, since these
+     * servers reject another connection from the same address within
+     * their connection interval limit. Instead, {@link HelloRejectedException}
+     * is thrown, and the next connection to the server goes on the
+     * original protocol. Either outcome is remembered for a while, so
+     * that these servers are not asked again.
+     *
+     * @param features wanted, see {@link Features}.
+     * @return connection with features that the server accepted.
+     * @throws HelloRejectedException if the server doesn't know HELLO.
+     * @throws IOException if error on networking.
+     */
+    public static EZInputOutput connect(Server server, boolean secure, int timeout,
+                                        Collection<String> features) throws IOException {
+        Set<String> known = PeerCapabilities.get(server);
+        if (features.isEmpty() || known != null && Collections.disjoint(known, features))
+            return new EZInputOutput(server, secure, timeout);
+
+        EZInputOutput io = new EZInputOutput(server, secure, timeout);
+        Response response;
+        try {
+            io.sendJSON(new Hello(new ArrayList<>(features)));
+            response = io.readResponse();
+        } catch (IOException e) {
+            io.close();
+            throw e;
+        }
+        if (!response.isSuccess()) {
+            LOGGER.fine(String.format("%s doesn't know HELLO: %s", server, response));
+            io.close();
+            PeerCapabilities.put(server, Collections.emptySet());
+            throw new HelloRejectedException(server);
+        }
+        Set<String> accepted = new HashSet<>(features);
+        accepted.retainAll(response.getFeatures() == null ?
+                Collections.emptySet() : response.getFeatures());
+        PeerCapabilities.put(server, accepted);
+        io.setFeatures(accepted);
+        return io;
+    }
+
+    public static EZInputOutput connect(Server server, boolean secure,
+                                        Collection<String> features) throws IOException {
+        return connect(server, secure, DEFAULT_SOCKET_TIMEOUT, features);
+    }
+
+    /**
+     * Switch to negotiated features. Both sides must switch right after
+     * the response of HELLO.
+     * @param features accepted by both sides.
+     */
+    public void setFeatures(Set<String> features) {
+        this.features = Collections.unmodifiableSet(new HashSet<>(features));
+        frame32 = features.contains(Features.FRAME32);
+        mapper = frame32 && features.contains(Features.SMILE) ?
+                ObjectMapperGetter.getSmile() : ObjectMapperGetter.get();
+    }
+
+    public Set<String> getFeatures() {
+        return features;
+    }
+
     public void close() {
         IOUtils.closeQuietly(getSocket());
+        // Socket closed first, so that blocked reads return then release the lock.
+        if (inFrame != null)
+            synchronized (inFrame) {
+                inFrame.release();
+            }
+        if (outFrame != null)
+            synchronized (outFrame) {
+                outFrame.release();
+            }
     }
 
     public void setTimeout(int millis) throws IOException {
         socket.setSoTimeout(millis);
     }
 
+    /**
+     * Check an idle connection before reuse, without blocking for long.
+     * @return true if the peer closed the connection, or has sent
+     * something while nothing is expected.
+     */
+    public boolean isStale() {
+        if (socket.isClosed() || readBufferedLine != null || hasBufferedFrame
+                || !batchedMessages.isEmpty())
+            return true;
+        try {
+            int timeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            try {
+                getInputStream().read();
+                // Either end of stream or unexpected data.
+                return true;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
     public void discardBuffer() {
         readBufferedLine = null;
+        hasBufferedFrame = false;
+        batchedMessages.clear();
     }
 
     /**
@@ -94,6 +224,8 @@ public class EZInputOutput {
      * @throws JsonMappingException same as {@link ObjectMapper#readValue(String, Class)}.
      */
     public <T> T readJSON(Class<T> type) throws IOException {
+        if (frame32)
+            return readFrame32(type);
         if (readBufferedLine == null)
             readBufferedLine = readString();
         T result = mapper.readValue(readBufferedLine, type);
@@ -101,6 +233,96 @@ public class EZInputOutput {
         return result;
     }
 
+    private <T> T readFrame32(Class<T> type) throws IOException {
+        synchronized (getInFrame()) {
+            if (!hasBufferedFrame)
+                readFrame32Bytes();
+            T result = mapper.readValue(inFrame.array(), 0, inFrame.size(), type);
+            hasBufferedFrame = false;
+            return result;
+        }
+    }
+
+    /**
+     * Read next frame into inFrame. Must hold the lock of inFrame.
+     */
+    private void readFrame32Bytes() throws IOException {
+        int length = getInputStream().readInt();
+        if (length < 0 || length > MAX_FRAME32_SIZE)
+            throw new IOException("illegal frame size " + length);
+        inFrame.reset();
+        // Grow as bytes arrive, not as the header claims, so that a peer
+        // can't make us allocate a large frame it never sends.
+        int size = 0;
+        while (size < length) {
+            inFrame.ensureCapacity(size + 1);
+            int n = getInputStream().read(inFrame.array(), size,
+                    Math.min(length, inFrame.array().length) - size);
+            if (n < 0)
+                throw new EOFException("frame truncated");
+            size += n;
+        }
+        inFrame.setSize(length);
+        hasBufferedFrame = true;
+        if (LOGGER.isLoggable(Level.FINE))
+            LOGGER.fine("read: " + describeFrame(inFrame));
+    }
+
+    /**
+     * Read a message whose type is unknown, either from socket or the
+     * internal buffer (see {@link #readJSON(Class)}). Parse only once, no
+     * exception is thrown for choosing type.
+     * A {@link ResourceBatch} is unpacked, its resources (or notifications)
+     * are returned one by one as if they were sent so.
+     * @return one of {@link Resource}, {@link Notification},
+     * {@link Response}, {@link ResultSize} or {@link Command}.
+     * @throws IOException error on read socket, or malformed message.
+     */
+    public Object readMessage() throws IOException {
+        if (frame32) {
+            synchronized (getInFrame()) {
+                while (batchedMessages.isEmpty()) {
+                    if (!hasBufferedFrame)
+                        readFrame32Bytes();
+                    hasBufferedFrame = false;
+                    Object message = MessageDecoder.decode(mapper, mapper.getJsonFactory()
+                            .createJsonParser(inFrame.array(), 0, inFrame.size()));
+                    if (!(message instanceof ResourceBatch))
+                        return message;
+                    ResourceBatch batch = (ResourceBatch) message;
+                    if (batch.getResources() != null)
+                        batch.getResources().stream()
+                                .filter(Objects::nonNull).forEach(batchedMessages::add);
+                    if (batch.getNotifications() != null)
+                        batch.getNotifications().stream()
+                                .filter(Objects::nonNull).forEach(batchedMessages::add);
+                }
+                return batchedMessages.poll();
+            }
+        }
+        String line = readBufferedLine != null ? readBufferedLine : readString();
+        readBufferedLine = null;
+        return MessageDecoder.decode(mapper, mapper.getJsonFactory().createJsonParser(line));
+    }
+
+    private String describeFrame(FrameBuffer frame) {
+        if (features.contains(Features.SMILE))
+            return String.format("(%d bytes of smile)", frame.size());
+        return new String(frame.array(), 0, frame.size(), StandardCharsets.UTF_8);
+    }
+
+    private synchronized FrameBuffer getInFrame() {
+        if (inFrame == null)
+            inFrame = new FrameBuffer();
+        return inFrame;
+    }
+
+    private synchronized FrameBuffer getOutFrame() {
+        if (outFrame == null)
+            outFrame = new FrameBuffer();
+        return outFrame;
+    }
+
     /**
      * Wrapper for {@link #readJSON(Class)}, to read a {@link Command}.
      * @return the parsed {@link Command}
@@ -125,6 +347,20 @@ public class EZInputOutput {
      * @throws IOException error on network or JSON serialization.
      */
     public void sendJSON(Object value) throws IOException {
+        if (frame32) {
+            synchronized (getOutFrame()) {
+                outFrame.reset();
+                mapper.writeValue(outFrame, value);
+                if (outFrame.size() > MAX_FRAME32_SIZE)
+                    throw new IOException("frame too large: " + outFrame.size());
+                if (LOGGER.isLoggable(Level.FINE))
+                    LOGGER.fine("send: " + describeFrame(outFrame));
+                getOutputStream().writeInt(outFrame.size());
+                getOutputStream().write(outFrame.array(), 0, outFrame.size());
+                getOutputStream().flush();
+            }
+            return;
+        }
         String jsonString = mapper.writeValueAsString(value);
         LOGGER.fine("send: " + jsonString);
         getOutputStream().writeUTF(jsonString);
@@ -146,25 +382,41 @@ public class EZInputOutput {
     }
 
     /**
-     * Read zero or more {@link Response} until {@link ResultSize} is read.
-     * @param consumer accept read {@link Response}.
-     * @throws IOException error on reading or parsing.
+     * Read zero or more {@link Resource} until {@link ResultSize} is read.
+     * @param consumer accept read {@link Resource}.
+     * @return number of resources read.
+     * @throws IOException error on reading or parsing, or unexpected message.
      */
     public int readResources(Consumer<Resource> consumer) throws IOException {
+        AtomicInteger resourceCount = new AtomicInteger();
+        readResult(resource -> {
+            consumer.accept(resource);
+            resourceCount.incrementAndGet();
+        });
+        return resourceCount.get();
+    }
+
+    /**
+     * Same as {@link #readResources(Consumer)}, but return the
+     * {@link ResultSize} at the end, for its extensions.
+     */
+    public ResultSize readResult(Consumer<Resource> consumer) throws IOException {
         int resourceCount = 0;
-        try {
-            //noinspection InfiniteLoopStatement
-            while (true) {
-                consumer.accept(readJSON(Resource.class));
+        while (true) {
+            Object message = readMessage();
+            if (message instanceof Resource) {
+                consumer.accept((Resource) message);
                 resourceCount++;
+            } else if (message instanceof ResultSize) {
+                ResultSize resultSize = (ResultSize) message;
+                if (resultSize.get() != resourceCount)
+                    LOGGER.warning(String.format("received %d result(s) but result size is %d",
+                            resourceCount, resultSize.get()));
+                return resultSize;
+            } else {
+                throw new IOException("unexpected message in result: " + message);
             }
-        } catch (JsonMappingException e) {
-            ResultSize resultSize = readJSON(ResultSize.class);
-            if (resultSize.get() != resourceCount)
-                LOGGER.warning(String.format("received %d result(s) but result size is %d",
-                        resourceCount, resultSize.get()));
         }
-        return resourceCount;
     }
 
     /**
@@ -187,6 +439,36 @@ public class EZInputOutput {
         IOUtils.copyLarge(inputStream, getOutputStream());
     }
 
+    /**
+     * Write the whole file, copied through a pooled buffer.
+     *
+     * Not by {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * sockets here have no channel, see ServerDaemon.start(). The NIO
+     * engine does that instead.
+     * @param file data read from, from its beginning.
+     * @throws IOException error on read or write, or file truncated.
+     */
+    public void writeBinary(FileChannel file) throws IOException {
+        getOutputStream().flush();
+        long size = file.size();
+        long position = 0;
+        ByteBuffer buffer = BufferPool.HEAP.acquire();
+        try {
+            while (position < size) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), size - position));
+                int n = file.read(buffer, position);
+                if (n < 0)
+                    throw new EOFException("file truncated");
+                getOutputStream().write(buffer.array(), 0, n);
+                position += n;
+            }
+            getOutputStream().flush();
+        } finally {
+            BufferPool.HEAP.release(buffer);
+        }
+    }
+
 
     private Socket getSocket() {
         return socket;
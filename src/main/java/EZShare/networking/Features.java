@@ -0,0 +1,80 @@
+package EZShare.networking;
+
+import java.util.*;
+
+/**
+ * Optional protocol features, negotiated with HELLO command on each
+ * connection. Peers that don't know HELLO stay on the original protocol.
+ *
+ * Created on 2026/10/18.
+ */
+public class Features {
+    /**
+     * Frames with 4-byte length prefix and standard UTF-8, instead of
+     * {@link java.io.DataOutputStream#writeUTF(String)} that limited to 64 KiB.
+     */
+    public final static String FRAME32 = "frame32";
+    /**
+     * Binary Smile encoding rather than text JSON, cheaper to encode &
+     * parse. Requires {@link #FRAME32}.
+     */
+    public final static String SMILE = "smile";
+    /**
+     * Keep the connection open after a command is done, so that it can
+     * carry more commands one after another. Connections with persistent
+     * SUBSCRIBE are not affected.
+     */
+    public final static String KEEPALIVE = "keepalive";
+    /**
+     * {@link EZShare.entities.ContentSummary} of the server on response to
+     * EXCHANGE, and on QUERY that asks for it, so that relayed queries may
+     * skip servers that have nothing to match. Requires {@link #FRAME32},
+     * a summary may be larger than 64 KiB.
+     */
+    public final static String SUMMARY = "summary";
+    /**
+     * Epoch of server list on response to EXCHANGE, so that following
+     * EXCHANGE may only carry servers added since the last one.
+     */
+    public final static String MEMBERSHIP = "membership";
+    /**
+     * PING command, to probe servers for failure detection.
+     */
+    public final static String PING = "ping";
+    /**
+     * {@link EZShare.entities.ResourceBatch} in QUERY results and on
+     * subscriptions, many resources per frame. Requires {@link #FRAME32},
+     * a batch may be larger than 64 KiB.
+     */
+    public final static String BATCH = "batch";
+    /**
+     * Subscribed resources are sent as {@link EZShare.entities.Notification}
+     * with origin, sequence number and servers relayed through, and servers
+     * name themselves on SUBSCRIBE; so that an update is delivered once, and
+     * never relayed back towards where it came from.
+     */
+    public final static String NOTIFICATION = "notification";
+
+    /**
+     * All features supported by this implementation.
+     */
+    public final static Set<String> SUPPORTED = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(FRAME32, SMILE, KEEPALIVE, SUMMARY, MEMBERSHIP, PING, BATCH,
+                    NOTIFICATION)));
+
+    /**
+     * @param requested features requested by peer, maybe null.
+     * @return features that both we and the peer support.
+     */
+    public static Set<String> accept(Collection<String> requested) {
+        Set<String> accepted = new HashSet<>();
+        if (requested != null)
+            requested.stream().filter(SUPPORTED::contains).forEach(accepted::add);
+        if (!accepted.contains(FRAME32)) {
+            accepted.remove(SMILE);
+            accepted.remove(SUMMARY);
+            accepted.remove(BATCH);
+        }
+        return accepted;
+    }
+}
@@ -0,0 +1,87 @@
+package EZShare.networking;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable byte array to write a frame into or read a frame from, so that
+ * JSON is encoded & parsed without intermediate strings. Starts with a
+ * pooled buffer, and gives it back on {@link #release()}.
+ *
+ * Not thread-safe.
+ *
+ * Created on 2026/10/18.
+ */
+class FrameBuffer extends OutputStream {
+    // Drop arrays grown beyond this size on reset, fall back to the pooled one.
+    private final static int SHRINK_THRESHOLD = 1024 * 1024;
+    private final static byte[] RELEASED = new byte[0];
+
+    private ByteBuffer pooled;
+    private byte[] array;
+    private int size;
+
+    FrameBuffer() {
+        pooled = BufferPool.HEAP.acquire();
+        array = pooled.array();
+    }
+
+    byte[] array() {
+        return array;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Set size after filled array directly.
+     */
+    void setSize(int size) {
+        this.size = size;
+    }
+
+    void reset() {
+        size = 0;
+        if (array.length > SHRINK_THRESHOLD && pooled != null)
+            array = pooled.array();
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > array.length)
+            array = Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(size + 1);
+        array[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(size + len);
+        System.arraycopy(b, off, array, size, len);
+        size += len;
+    }
+
+    /**
+     * Give back the pooled buffer. Must not be used anymore.
+     */
+    void release() {
+        if (pooled != null)
+            BufferPool.HEAP.release(pooled);
+        pooled = null;
+        array = RELEASED;
+        size = 0;
+    }
+
+    /**
+     * Do nothing, {@link com.fasterxml.jackson.databind.ObjectMapper} closes
+     * the stream after written.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,184 @@
+package EZShare.networking;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Encode & decode frames of EZ protocol on byte buffers, for non-blocking
+ * I/O. Frames are the same as what {@link EZInputOutput} sends: either
+ * {@link #LEGACY} or {@link #FRAME32}, depends on negotiated features.
+ *
+ * Created on 2026/10/18.
+ */
+public abstract class FrameCodec {
+    private final static Logger LOGGER = Logger.getLogger(FrameCodec.class.getName());
+
+    /**
+     * A JSON string written by {@link DataOutputStream#writeUTF(String)},
+     * i.e. two bytes of length followed by modified UTF-8 bytes.
+     */
+    public final static FrameCodec LEGACY = new Legacy();
+    /**
+     * See {@link Features#FRAME32}.
+     */
+    public final static FrameCodec FRAME32 = new Frame32(ObjectMapperGetter.get(), false);
+    /**
+     * See {@link Features#SMILE}.
+     */
+    public final static FrameCodec FRAME32_SMILE = new Frame32(ObjectMapperGetter.getSmile(), true);
+
+    final ObjectMapper mapper;
+
+    private FrameCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * @param features negotiated on the connection.
+     * @return the codec for these features.
+     */
+    public static FrameCodec of(Set<String> features) {
+        if (!features.contains(Features.FRAME32))
+            return LEGACY;
+        return features.contains(Features.SMILE) ? FRAME32_SMILE : FRAME32;
+    }
+
+    /**
+     * @return max size of a frame, including its header.
+     */
+    public abstract int getMaxFrameSize();
+
+    /**
+     * Serialize object to a frame.
+     * @param value object to write.
+     * @return the frame, ready to read.
+     * @throws IOException error on JSON serialization, or too long.
+     */
+    public abstract ByteBuffer encode(Object value) throws IOException;
+
+    /**
+     * Take one frame from the buffer if it's completely received.
+     * @param buffer in read mode. Position will move to the end of the
+     *               frame, or not move if the frame is incomplete.
+     * @return the frame to {@link #parse(ByteBuffer, Class)}, or null if
+     * incomplete.
+     * @throws IOException if the frame is malformed.
+     */
+    public abstract ByteBuffer decode(ByteBuffer buffer) throws IOException;
+
+    /**
+     * Same as {@link EZInputOutput#readJSON(Class)}, but from decoded frame.
+     * @param frame returned by {@link #decode(ByteBuffer)}.
+     * @throws IOException error on parsing.
+     */
+    public abstract <T> T parse(ByteBuffer frame, Class<T> type) throws IOException;
+
+    private static class Legacy extends FrameCodec {
+        Legacy() {
+            super(ObjectMapperGetter.get());
+        }
+
+        @Override
+        public int getMaxFrameSize() {
+            return 2 + 0xffff;
+        }
+
+        @Override
+        public ByteBuffer encode(Object value) throws IOException {
+            String jsonString = mapper.writeValueAsString(value);
+            LOGGER.fine("send: " + jsonString);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(jsonString.length() + 2);
+            new DataOutputStream(bytes).writeUTF(jsonString);
+            return ByteBuffer.wrap(bytes.toByteArray());
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer buffer) {
+            if (buffer.remaining() < 2)
+                return null;
+            int length = buffer.getShort(buffer.position()) & 0xffff;
+            if (buffer.remaining() < 2 + length)
+                return null;
+            byte[] frame = new byte[2 + length];
+            buffer.get(frame);
+            return ByteBuffer.wrap(frame);
+        }
+
+        @Override
+        public <T> T parse(ByteBuffer frame, Class<T> type) throws IOException {
+            String string = DataInputStream.readUTF(new DataInputStream(new ByteArrayInputStream(
+                    frame.array(), frame.arrayOffset() + frame.position(), frame.remaining())));
+            LOGGER.fine("read: " + string);
+            return mapper.readValue(string, type);
+        }
+    }
+
+    private static class Frame32 extends FrameCodec {
+        private final boolean binary;
+
+        Frame32(ObjectMapper mapper, boolean binary) {
+            super(mapper);
+            this.binary = binary;
+        }
+
+        private String describe(byte[] frame, int offset, int length) {
+            if (binary)
+                return String.format("(%d bytes of smile)", length);
+            return new String(frame, offset, length, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int getMaxFrameSize() {
+            return 4 + EZInputOutput.MAX_FRAME32_SIZE;
+        }
+
+        @Override
+        public ByteBuffer encode(Object value) throws IOException {
+            FrameBuffer frame = new FrameBuffer();
+            try {
+                frame.write(new byte[4]);
+                mapper.writeValue(frame, value);
+                int length = frame.size() - 4;
+                if (length > EZInputOutput.MAX_FRAME32_SIZE)
+                    throw new IOException("frame too large: " + length);
+                if (LOGGER.isLoggable(Level.FINE))
+                    LOGGER.fine("send: " + describe(frame.array(), 4, length));
+                ByteBuffer buffer = ByteBuffer.allocate(frame.size());
+                buffer.putInt(length).put(frame.array(), 4, length).flip();
+                return buffer;
+            } finally {
+                frame.release();
+            }
+        }
+
+        @Override
+        public ByteBuffer decode(ByteBuffer buffer) throws IOException {
+            if (buffer.remaining() < 4)
+                return null;
+            int length = buffer.getInt(buffer.position());
+            if (length < 0 || length > EZInputOutput.MAX_FRAME32_SIZE)
+                throw new IOException("illegal frame size " + length);
+            if (buffer.remaining() < 4 + length)
+                return null;
+            buffer.position(buffer.position() + 4);
+            byte[] frame = new byte[length];
+            buffer.get(frame);
+            return ByteBuffer.wrap(frame);
+        }
+
+        @Override
+        public <T> T parse(ByteBuffer frame, Class<T> type) throws IOException {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine("read: " + describe(frame.array(),
+                        frame.arrayOffset() + frame.position(), frame.remaining()));
+            return mapper.readValue(frame.array(), frame.arrayOffset() + frame.position(),
+                    frame.remaining(), type);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package EZShare.networking;
+
+import EZShare.entities.Server;
+
+import java.io.IOException;
+
+/**
+ * The server doesn't know HELLO. It's remembered, so that next connection
+ * to the server goes without HELLO.
+ *
+ * Created on 2026/10/18.
+ */
+public class HelloRejectedException extends IOException {
+    public HelloRejectedException(Server server) {
+        super(server + " doesn't know HELLO");
+    }
+}
@@ -0,0 +1,89 @@
+package EZShare.networking;
+
+import EZShare.entities.Command;
+import EZShare.entities.Notification;
+import EZShare.entities.Resource;
+import EZShare.entities.ResourceBatch;
+import EZShare.entities.Response;
+import EZShare.entities.ResultSize;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+
+/**
+ * Decode a message of unknown type in a single parse.
+ *
+ * Tokens of the message are buffered while its top-level keys are checked,
+ * the keys tell which type it is, then the buffered tokens are bound to
+ * that type. No need to try each type and catch exceptions.
+ *
+ * Created on 2026/10/18.
+ */
+class MessageDecoder {
+    private final static String RESULT_SIZE_KEY = "resultSize";
+    private final static String RESPONSE_KEY = "response";
+    private final static String COMMAND_KEY = "command";
+    private final static String RESOURCES_KEY = "resources";
+    private final static String NOTIFICATION_KEY = "notification";
+    private final static String NOTIFICATIONS_KEY = "notifications";
+
+    /**
+     * @param parser on a message, not started yet.
+     * @return one of {@link Resource}, {@link ResourceBatch},
+     * {@link Notification}, {@link Response}, {@link ResultSize} or
+     * {@link Command}. Objects without keys of other types are taken as
+     * {@link Resource}.
+     * @throws IOException if the message is malformed, or cannot be bound
+     * to its type.
+     */
+    static Object decode(ObjectMapper mapper, JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT)
+            throw new JsonMappingException("message is not an object", parser.getCurrentLocation());
+        TokenBuffer tokens = new TokenBuffer(mapper);
+        tokens.copyCurrentEvent(parser);
+        Class<?> type = Resource.class;
+        int depth = 1;
+        JsonToken token;
+        while (depth > 0 && (token = parser.nextToken()) != null) {
+            switch (token) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    break;
+                case FIELD_NAME:
+                    if (depth == 1)
+                        type = classify(parser.getCurrentName(), type);
+                    break;
+            }
+            tokens.copyCurrentEvent(parser);
+        }
+        parser.close();
+        return mapper.readValue(tokens.asParser(), type);
+    }
+
+    private static Class<?> classify(String key, Class<?> current) {
+        switch (key) {
+            case RESULT_SIZE_KEY:
+                return ResultSize.class;
+            case RESPONSE_KEY:
+                return Response.class;
+            case COMMAND_KEY:
+                return Command.class;
+            case RESOURCES_KEY:
+            case NOTIFICATIONS_KEY:
+                return ResourceBatch.class;
+            case NOTIFICATION_KEY:
+                return Notification.class;
+            default:
+                return current;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package EZShare.networking;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 
 /**
  * Create & get a long-live ObjectMapper object.
@@ -8,6 +9,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  */
 class ObjectMapperGetter {
     private static ObjectMapper objectMapper;
+    private static ObjectMapper smileObjectMapper;
 
     synchronized static ObjectMapper get() {
         if (objectMapper == null) {
@@ -16,4 +18,13 @@ class ObjectMapperGetter {
         }
         return objectMapper;
     }
+
+    /**
+     * @return mapper on binary Smile format rather than text JSON.
+     */
+    synchronized static ObjectMapper getSmile() {
+        if (smileObjectMapper == null)
+            smileObjectMapper = new ObjectMapper(new SmileFactory());
+        return smileObjectMapper;
+    }
 }
@@ -0,0 +1,49 @@
+package EZShare.networking;
+
+import EZShare.entities.Server;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remember which features each server accepted, so that servers don't know
+ * HELLO are not asked again on every connection. Entries expire, in case
+ * the server is upgraded.
+ *
+ * Created on 2026/10/18.
+ */
+class PeerCapabilities {
+    private final static long EXPIRE_MILLIS = 10 * 60 * 1000;  // 10 minutes
+
+    private static class Entry {
+        final Set<String> features;
+        final long expireAt;
+
+        Entry(Set<String> features) {
+            this.features = Collections.unmodifiableSet(features);
+            expireAt = System.currentTimeMillis() + EXPIRE_MILLIS;
+        }
+    }
+
+    private final static ConcurrentHashMap<Server, Entry> capabilities = new ConcurrentHashMap<>();
+
+    /**
+     * @return features accepted by the server last time, empty if the server
+     * doesn't know HELLO, or null if unknown.
+     */
+    static Set<String> get(Server server) {
+        Entry entry = capabilities.get(server);
+        if (entry == null)
+            return null;
+        if (entry.expireAt < System.currentTimeMillis()) {
+            capabilities.remove(server, entry);
+            return null;
+        }
+        return entry.features;
+    }
+
+    static void put(Server server, Set<String> features) {
+        capabilities.put(server, new Entry(features));
+    }
+}
@@ -0,0 +1,52 @@
+package EZShare.networking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Transport without encryption.
+ * Created on 2026/10/18.
+ */
+public class PlainTransport implements Transport {
+    private final SocketChannel channel;
+
+    public PlainTransport(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        return channel.read(dst);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return channel.write(src);
+    }
+
+    @Override
+    public boolean flush() {
+        return true;
+    }
+
+    /**
+     * Send with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+     * bytes are copied in kernel without going through Java heap.
+     */
+    @Override
+    public long transferFrom(FileChannel file, long position, long count) throws IOException {
+        return file.transferTo(position, count, channel);
+    }
+
+    @Override
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,141 @@
+package EZShare.networking;
+
+import EZShare.entities.Notification;
+import EZShare.entities.Resource;
+import EZShare.entities.ResourceBatch;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Pack resources to send into {@link ResourceBatch}es, for peers that
+ * negotiated {@link Features#BATCH}.
+ *
+ * A batch is sent once it holds MAX_RESOURCES or about MAX_CHARS, or its
+ * first resource has waited for linger time, or on {@link #flush()},
+ * whichever comes first. So a burst goes out in a few large frames, while
+ * a lone resource is delayed by linger time at most. A batch of one is
+ * sent as a plain resource. {@link Notification}s are batched the same
+ * way, in batches of their own.
+ *
+ * Thread-safe.
+ *
+ * Created on 2026/10/18.
+ */
+public class ResourceBatcher implements Consumer<Resource> {
+    private final static Logger LOGGER = Logger.getLogger(ResourceBatcher.class.getName());
+    public final static int MAX_RESOURCES = 64;
+    // Far below MAX_FRAME32_SIZE even all in 3-byte UTF-8.
+    private final static int MAX_CHARS = 256 * 1024;
+    // Flush of lingering batches may block on a slow peer, so they are
+    // run on a pool rather than on the timer.
+    private final static ScheduledExecutorService LINGER_TIMER =
+            Executors.newSingleThreadScheduledExecutor(daemon("batch-linger-timer"));
+    private final static ExecutorService LINGER_FLUSHERS =
+            Executors.newCachedThreadPool(daemon("batch-linger-flush"));
+
+    private final Consumer<Object> output;
+    private final long lingerMillis;
+    // Either Resource or Notification, guarded by this.
+    private List<Object> pending = new ArrayList<>();
+    private int pendingChars;
+    private ScheduledFuture<?> lingerTask;
+
+    /**
+     * @param output send a message, either a {@link Resource},
+     *               {@link Notification} or {@link ResourceBatch}. May throw
+     *               {@link UncheckedIOException}.
+     * @param lingerMillis longest time a resource may wait for others, or
+     *                     0 to wait until batch is full or flushed.
+     */
+    public ResourceBatcher(Consumer<Object> output, long lingerMillis) {
+        this.output = output;
+        this.lingerMillis = lingerMillis;
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Override
+    public void accept(Resource resource) {
+        add(resource, estimateChars(resource));
+    }
+
+    public void add(Notification notification) {
+        add(notification, estimateChars(notification.getResource())
+                + notification.getOrigin().length() + notification.getVia().size() * 32);
+    }
+
+    private synchronized void add(Object message, int chars) {
+        if (!pending.isEmpty() && pending.get(0).getClass() != message.getClass())
+            flush();
+        pending.add(message);
+        pendingChars += chars;
+        if (pending.size() >= MAX_RESOURCES || pendingChars >= MAX_CHARS)
+            flush();
+        else if (pending.size() == 1 && lingerMillis > 0)
+            lingerTask = LINGER_TIMER.schedule(
+                    () -> LINGER_FLUSHERS.execute(this::flushLingering),
+                    lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send what's pending now.
+     * @throws UncheckedIOException if output throws.
+     */
+    public synchronized void flush() throws UncheckedIOException {
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        if (pending.isEmpty())
+            return;
+        List<Object> messages = pending;
+        pending = new ArrayList<>();
+        pendingChars = 0;
+        output.accept(messages.size() == 1 ? messages.get(0) : toBatch(messages));
+    }
+
+    private static ResourceBatch toBatch(List<Object> messages) {
+        if (messages.get(0) instanceof Notification) {
+            List<Notification> notifications = new ArrayList<>(messages.size());
+            messages.forEach(message -> notifications.add((Notification) message));
+            return new ResourceBatch(null, notifications);
+        }
+        List<Resource> resources = new ArrayList<>(messages.size());
+        messages.forEach(message -> resources.add((Resource) message));
+        return new ResourceBatch(resources, null);
+    }
+
+    private void flushLingering() {
+        try {
+            flush();
+        } catch (UncheckedIOException e) {
+            // Whoever sends next will get the error too.
+            LOGGER.fine("fail to send lingering batch: " + e);
+        }
+    }
+
+    /**
+     * Roughly the size of its JSON, without encoding it.
+     */
+    private static int estimateChars(Resource resource) {
+        int chars = resource.getName().length() + resource.getDescription().length()
+                + resource.getUri().length() + resource.getChannel().length()
+                + resource.getOwner().length() + 128;
+        if (resource.getEzserver() != null)
+            chars += resource.getEzserver().length();
+        for (String tag : resource.getTags())
+            chars += tag.length() + 3;
+        return chars;
+    }
+}
@@ -5,12 +5,23 @@ import EZShare.Server;
 import javax.net.ssl.*;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.security.*;
 import java.security.cert.CertificateException;
+import java.util.Arrays;
+import java.util.List;
 import java.util.logging.Logger;
 
 /**
  * Reference: http://stackoverflow.com/a/17352927/1833236
+ *
+ * SSL contexts are built once per process and shared by all connections,
+ * so that key stores are loaded only once, and sessions are cached and
+ * resumed on following connections to the same peer (abbreviated
+ * handshake) instead of a full handshake for every relayed query, exchange
+ * and subscription.
+ *
  * Created on 2017/5/13.
  */
 public class SecurityHelper {
@@ -19,6 +30,23 @@ public class SecurityHelper {
     static final private String STORE_FILENAME_SERVER = "keystore-server";
     static final private String STORE_FILENAME_TEST = "keystore-debug";
     static final private char[] STORE_PASSWORD = "comp90015".toCharArray();
+    static final private int SESSION_CACHE_SIZE = 1024;
+    static final private int SESSION_TIMEOUT = 24 * 60 * 60;  // 1 day
+
+    // Guarded by SecurityHelper.class
+    private static SSLContext clientContext;
+    private static SSLContext serverContext;
+    // null for JVM defaults.
+    private static volatile String[] enabledProtocols;
+    private static volatile String[] enabledCipherSuites;
+
+    static {
+        // Let servers issue session tickets, so that sessions can be resumed
+        // without keeping state on server side. Only JDK 13+ knows these,
+        // older ones resume from their session caches.
+        setDefaultProperty("jdk.tls.server.enableSessionTicketExtension", "true");
+        setDefaultProperty("jdk.tls.client.enableSessionTicketExtension", "true");
+    }
 
     private final boolean isClient;
 
@@ -73,13 +101,144 @@ public class SecurityHelper {
         return trustFactory.getTrustManagers();
     }
 
+    private static void setDefaultProperty(String key, String value) {
+        if (System.getProperty(key) == null)
+            System.setProperty(key, value);
+    }
+
+    /**
+     * Restrict TLS protocols used by all following connections.
+     * @param protocols to enable, or null for JVM defaults.
+     * @throws IllegalArgumentException if any one is not supported.
+     */
+    public static void setEnabledProtocols(List<String> protocols) {
+        enabledProtocols = checkSupported(protocols,
+                getDefaultParameters().getProtocols(), "protocol");
+    }
+
+    /**
+     * Restrict cipher suites used by all following connections.
+     * @param cipherSuites to enable, or null for JVM defaults.
+     * @throws IllegalArgumentException if any one is not supported.
+     */
+    public static void setEnabledCipherSuites(List<String> cipherSuites) {
+        enabledCipherSuites = checkSupported(cipherSuites,
+                getDefaultParameters().getCipherSuites(), "cipher suite");
+    }
+
+    private static SSLParameters getDefaultParameters() {
+        try {
+            return SSLContext.getDefault().getSupportedSSLParameters();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String[] checkSupported(List<String> values, String[] supported,
+                                           String kind) {
+        if (values == null)
+            return null;
+        List<String> supportedList = Arrays.asList(supported);
+        for (String value : values)
+            if (!supportedList.contains(value))
+                throw new IllegalArgumentException("unsupported " + kind + ": " + value);
+        return values.toArray(new String[0]);
+    }
+
+    /**
+     * Drop cached contexts along with their sessions. Following connections
+     * will load key stores again and do full handshakes, e.g. after key
+     * stores are replaced. Listening sockets keep their own contexts.
+     */
+    public static synchronized void invalidate() {
+        clientContext = null;
+        serverContext = null;
+    }
+
+    /**
+     * Apply enabled protocols & cipher suites to the engine.
+     */
+    public static void configure(SSLEngine engine) {
+        String[] protocols = enabledProtocols;
+        String[] cipherSuites = enabledCipherSuites;
+        if (protocols != null)
+            engine.setEnabledProtocols(protocols);
+        if (cipherSuites != null)
+            engine.setEnabledCipherSuites(cipherSuites);
+    }
+
+    /**
+     * Connect to a server. The session of last connection to the same host
+     * and port is resumed if it is still valid.
+     * @param connectTimeout in milliseconds, 0 for infinite.
+     */
+    public SSLSocket createSocket(String host, int port, int connectTimeout)
+            throws IOException, SecuritySetupException {
+        Socket plain = new Socket();
+        SSLSocket socket;
+        try {
+            plain.connect(new InetSocketAddress(host, port), connectTimeout);
+            socket = (SSLSocket) getSSLContext()
+                    .getSocketFactory().createSocket(plain, host, port, true);
+        } catch (IOException | SecuritySetupException e) {
+            plain.close();
+            throw e;
+        }
+        String[] protocols = enabledProtocols;
+        String[] cipherSuites = enabledCipherSuites;
+        if (protocols != null)
+            socket.setEnabledProtocols(protocols);
+        if (cipherSuites != null)
+            socket.setEnabledCipherSuites(cipherSuites);
+        return socket;
+    }
+
+    /**
+     * Listen on the port, clients must authenticate themselves.
+     */
+    public SSLServerSocket createServerSocket(int port)
+            throws IOException, SecuritySetupException {
+        SSLServerSocket socket = (SSLServerSocket) getSSLContext()
+                .getServerSocketFactory().createServerSocket(port);
+        String[] protocols = enabledProtocols;
+        String[] cipherSuites = enabledCipherSuites;
+        if (protocols != null)
+            socket.setEnabledProtocols(protocols);
+        if (cipherSuites != null)
+            socket.setEnabledCipherSuites(cipherSuites);
+        socket.setNeedClientAuth(true);
+        return socket;
+    }
+
+    /**
+     * @return the context shared by this process, built on first call.
+     * @throws SecuritySetupException if failed to build the context.
+     */
     public SSLContext getSSLContext() throws SecuritySetupException {
+        synchronized (SecurityHelper.class) {
+            SSLContext context = isClient ? clientContext : serverContext;
+            if (context == null) {
+                context = createSSLContext();
+                if (isClient)
+                    clientContext = context;
+                else
+                    serverContext = context;
+            }
+            return context;
+        }
+    }
+
+    private SSLContext createSSLContext() throws SecuritySetupException {
         try {
             KeyStore keyStore = getKeyStore();
             KeyManager keyManagers[] = getKeyManagers(keyStore);
             TrustManager trustManagers[] = getTrustManager(keyStore);
             SSLContext context = SSLContext.getInstance("SSL");
             context.init(keyManagers, trustManagers, null);
+            SSLSessionContext sessions = isClient ?
+                    context.getClientSessionContext() : context.getServerSessionContext();
+            sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+            sessions.setSessionTimeout(SESSION_TIMEOUT);
             return context;
         } catch (IOException | CertificateException
                 | NoSuchAlgorithmException | KeyStoreException
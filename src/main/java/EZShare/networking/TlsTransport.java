@@ -0,0 +1,206 @@
+package EZShare.networking;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLEngineResult.HandshakeStatus;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Logger;
+
+/**
+ * Transport over TLS, with {@link SSLEngine} on a non-blocking channel.
+ * Handshake is driven by reads & writes, delegated tasks run in place.
+ *
+ * Created on 2026/10/18.
+ */
+public class TlsTransport implements Transport {
+    private final static Logger LOGGER = Logger.getLogger(TlsTransport.class.getName());
+    private final static ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel channel;
+    private final SSLEngine engine;
+    // All in write mode.
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+
+    public TlsTransport(SocketChannel channel, SSLEngine engine) throws IOException {
+        this.channel = channel;
+        this.engine = engine;
+        netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        engine.beginHandshake();
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int size) {
+        ByteBuffer newBuffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+        buffer.flip();
+        newBuffer.put(buffer);
+        return newBuffer;
+    }
+
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null)
+            task.run();
+    }
+
+    /**
+     * @return true if netOut is empty.
+     */
+    private boolean flushNet() throws IOException {
+        netOut.flip();
+        try {
+            channel.write(netOut);
+        } finally {
+            netOut.compact();
+        }
+        return netOut.position() == 0;
+    }
+
+    /**
+     * Produce handshake messages as long as engine wants.
+     * @return false if blocked by a full socket.
+     */
+    private boolean wrapHandshake() throws IOException {
+        while (engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP) {
+            SSLEngineResult result = engine.wrap(EMPTY, netOut);
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    if (!flushNet())
+                        return false;
+                    netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                    break;
+                case CLOSED:
+                    flushNet();
+                    return false;
+                default:
+                    if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK)
+                        runDelegatedTasks();
+            }
+        }
+        return flushNet();
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        while (true) {
+            if (appIn.position() > 0) {
+                appIn.flip();
+                int length = Math.min(appIn.remaining(), dst.remaining());
+                ByteBuffer slice = appIn.slice();
+                slice.limit(length);
+                dst.put(slice);
+                appIn.position(appIn.position() + length);
+                appIn.compact();
+                return length;
+            }
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    appIn = enlarge(appIn, engine.getSession().getApplicationBufferSize());
+                    continue;
+                case BUFFER_UNDERFLOW:
+                    if (!netIn.hasRemaining())
+                        netIn = enlarge(netIn, engine.getSession().getPacketBufferSize());
+                    int n = channel.read(netIn);
+                    if (n <= 0)
+                        return n;
+                    continue;
+                case CLOSED:
+                    if (appIn.position() > 0)
+                        continue;
+                    return -1;
+            }
+            switch (result.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    break;
+                case NEED_WRAP:
+                    if (!wrapHandshake())
+                        return 0;
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int consumed = 0;
+        while (src.hasRemaining() && flushNet()) {
+            SSLEngineResult result = engine.wrap(src, netOut);
+            consumed += result.bytesConsumed();
+            switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    if (flushNet())
+                        netOut = enlarge(netOut, engine.getSession().getPacketBufferSize());
+                    continue;
+                case CLOSED:
+                    throw new IOException("TLS session closed");
+            }
+            if (result.getHandshakeStatus() == HandshakeStatus.NEED_TASK)
+                runDelegatedTasks();
+            else if (result.getHandshakeStatus() == HandshakeStatus.NEED_WRAP && !wrapHandshake())
+                break;
+            // Handshake in progress and waiting for peer.
+            if (result.bytesConsumed() == 0 && result.bytesProduced() == 0)
+                break;
+        }
+        flushNet();
+        return consumed;
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        if (engine.getHandshakeStatus() == HandshakeStatus.NEED_WRAP)
+            return wrapHandshake();
+        return flushNet();
+    }
+
+    /**
+     * Bytes have to be encrypted in user space, copy through a pooled
+     * direct buffer.
+     */
+    @Override
+    public long transferFrom(FileChannel file, long position, long count) throws IOException {
+        if (!flush())
+            return 0;
+        ByteBuffer buffer = BufferPool.DIRECT.acquire();
+        try {
+            buffer.limit((int) Math.min(buffer.capacity(), count));
+            if (file.read(buffer, position) < 0)
+                throw new EOFException("file truncated");
+            buffer.flip();
+            return write(buffer);
+        } finally {
+            BufferPool.DIRECT.release(buffer);
+        }
+    }
+
+    @Override
+    public SocketChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            engine.closeOutbound();
+            wrapHandshake();
+        } catch (IOException e) {
+            LOGGER.fine("fail to send close_notify: " + e);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package EZShare.networking;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Move plain bytes over a non-blocking socket channel, with or without TLS.
+ * Created on 2026/10/18.
+ */
+public interface Transport extends Closeable {
+    /**
+     * Read as many bytes as available without blocking.
+     * @param dst buffer to fill.
+     * @return the number of bytes read, possibly zero, or -1 on EOF.
+     * @throws IOException if error on read.
+     */
+    int read(ByteBuffer dst) throws IOException;
+
+    /**
+     * Write as many bytes as possible without blocking.
+     * @param src buffer to write.
+     * @return the number of bytes consumed from src.
+     * @throws IOException if error on write.
+     */
+    int write(ByteBuffer src) throws IOException;
+
+    /**
+     * Write out bytes buffered by the transport itself.
+     * @return true if nothing left in the transport.
+     * @throws IOException if error on write.
+     */
+    boolean flush() throws IOException;
+
+    /**
+     * Write part of a file as many bytes as possible without blocking.
+     * @param file to read from.
+     * @param position of the first byte in file.
+     * @param count max number of bytes to write.
+     * @return the number of bytes written, possibly zero.
+     * @throws IOException if error on read or write.
+     */
+    long transferFrom(FileChannel file, long position, long count) throws IOException;
+
+    SocketChannel getChannel();
+}
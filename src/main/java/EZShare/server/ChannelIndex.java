@@ -0,0 +1,234 @@
+package EZShare.server;
+
+import EZShare.entities.Resource;
+
+import java.net.URI;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Resources in one channel, indexed by URI and by owner.
+ * Names and descriptions are also indexed by their trigrams (every three
+ * consecutive chars), to find substring matches without a full scan.
+ *
+ * Immutable: put & remove return a new index sharing most of its
+ * structure with the old one. Any index is a consistent snapshot that can
+ * be read from any thread without locking.
+ *
+ * Created on 2026/10/18.
+ */
+final class ChannelIndex {
+    private final static int GRAM_LENGTH = 3;
+    final static ChannelIndex EMPTY = new ChannelIndex(PersistentHashMap.empty(),
+            PersistentHashMap.empty(), PersistentHashMap.empty(), PersistentHashMap.empty());
+
+    private final PersistentHashMap<URI, Resource> byUri;
+    private final PersistentHashMap<String, PersistentHashMap<URI, Resource>> byOwner;
+    private final PersistentHashMap<Long, PersistentHashMap<URI, Resource>> byNameGram;
+    private final PersistentHashMap<Long, PersistentHashMap<URI, Resource>> byDescriptionGram;
+
+    private ChannelIndex(PersistentHashMap<URI, Resource> byUri,
+                         PersistentHashMap<String, PersistentHashMap<URI, Resource>> byOwner,
+                         PersistentHashMap<Long, PersistentHashMap<URI, Resource>> byNameGram,
+                         PersistentHashMap<Long, PersistentHashMap<URI, Resource>> byDescriptionGram) {
+        this.byUri = byUri;
+        this.byOwner = byOwner;
+        this.byNameGram = byNameGram;
+        this.byDescriptionGram = byDescriptionGram;
+    }
+
+    Resource get(URI uri) {
+        return byUri.get(uri);
+    }
+
+    /**
+     * @return index with the resource added or replaced.
+     */
+    ChannelIndex put(URI uri, Resource resource) {
+        ChannelIndex index = remove(uri);
+        PersistentHashMap<String, PersistentHashMap<URI, Resource>> byOwner =
+                addTo(index.byOwner, resource.getOwner(), uri, resource);
+        PersistentHashMap<Long, PersistentHashMap<URI, Resource>> byNameGram = index.byNameGram;
+        for (long gram : distinctGrams(resource.getName()))
+            byNameGram = addTo(byNameGram, gram, uri, resource);
+        PersistentHashMap<Long, PersistentHashMap<URI, Resource>> byDescriptionGram =
+                index.byDescriptionGram;
+        for (long gram : distinctGrams(resource.getDescription()))
+            byDescriptionGram = addTo(byDescriptionGram, gram, uri, resource);
+        return new ChannelIndex(index.byUri.put(uri, resource), byOwner,
+                byNameGram, byDescriptionGram);
+    }
+
+    /**
+     * @return index without the resource, or this index if not found.
+     */
+    ChannelIndex remove(URI uri) {
+        Resource resource = byUri.get(uri);
+        if (resource == null)
+            return this;
+        PersistentHashMap<Long, PersistentHashMap<URI, Resource>> byNameGram = this.byNameGram;
+        for (long gram : distinctGrams(resource.getName()))
+            byNameGram = removeFrom(byNameGram, gram, uri);
+        PersistentHashMap<Long, PersistentHashMap<URI, Resource>> byDescriptionGram =
+                this.byDescriptionGram;
+        for (long gram : distinctGrams(resource.getDescription()))
+            byDescriptionGram = removeFrom(byDescriptionGram, gram, uri);
+        return new ChannelIndex(byUri.remove(uri),
+                removeFrom(byOwner, resource.getOwner(), uri),
+                byNameGram, byDescriptionGram);
+    }
+
+    private static <K> PersistentHashMap<K, PersistentHashMap<URI, Resource>> addTo(
+            PersistentHashMap<K, PersistentHashMap<URI, Resource>> index,
+            K key, URI uri, Resource resource) {
+        PersistentHashMap<URI, Resource> resources = index.get(key);
+        if (resources == null)
+            resources = PersistentHashMap.empty();
+        return index.put(key, resources.put(uri, resource));
+    }
+
+    private static <K> PersistentHashMap<K, PersistentHashMap<URI, Resource>> removeFrom(
+            PersistentHashMap<K, PersistentHashMap<URI, Resource>> index, K key, URI uri) {
+        PersistentHashMap<URI, Resource> resources = index.get(key);
+        if (resources == null)
+            return index;
+        resources = resources.remove(uri);
+        return resources.isEmpty() ? index.remove(key) : index.put(key, resources);
+    }
+
+    boolean isEmpty() {
+        return byUri.isEmpty();
+    }
+
+    int size() {
+        return byUri.size();
+    }
+
+    /**
+     * Narrow down resources that may match with the template, using the
+     * most selective index available. Candidates still need to be checked
+     * with {@link EZShare.entities.TemplateMatcher}.
+     * @param template to match, its channel is ignored.
+     * @return a lazy stream on a superset of resources in this channel that
+     * match the template.
+     */
+    Stream<Resource> candidates(Resource template) {
+        if (!template.getUri().isEmpty()) {
+            URI uri = template.getNormalizedUri();
+            Resource resource = uri == null ? null : byUri.get(uri);
+            return resource == null ? Stream.empty() : Stream.of(resource);
+        }
+        TextCandidates textMatched = textCandidates(template);
+        PersistentHashMap<URI, Resource> ownerMatched = template.getOwner().isEmpty() ? null :
+                byOwner.getOrDefault(template.getOwner(), PersistentHashMap.empty());
+        if (textMatched != null
+                && (ownerMatched == null || textMatched.estimatedSize <= ownerMatched.size()))
+            return textMatched.resources;
+        if (ownerMatched != null)
+            return ownerMatched.values();
+        return byUri.values();
+    }
+
+    private static class TextCandidates {
+        final Stream<Resource> resources;
+        final int estimatedSize;
+
+        TextCandidates(Stream<Resource> resources, int estimatedSize) {
+            this.resources = resources;
+            this.estimatedSize = estimatedSize;
+        }
+    }
+
+    /**
+     * Find resources whose name contains the template's name or whose
+     * description contains the template's description, by trigrams.
+     * @return a superset of these resources, or null if the index cannot
+     * help (no name and description, or either is shorter than a trigram).
+     */
+    private TextCandidates textCandidates(Resource template) {
+        String name = template.getName();
+        String description = template.getDescription();
+        if (name.isEmpty() && description.isEmpty())
+            return null;
+        List<PersistentHashMap<URI, Resource>> namePostings = null;
+        if (!name.isEmpty() && (namePostings = postings(byNameGram, name)) == null)
+            return null;
+        List<PersistentHashMap<URI, Resource>> descriptionPostings = null;
+        if (!description.isEmpty()
+                && (descriptionPostings = postings(byDescriptionGram, description)) == null)
+            return null;
+
+        if (descriptionPostings == null)
+            return new TextCandidates(intersect(namePostings), rarestSize(namePostings));
+        if (namePostings == null)
+            return new TextCandidates(intersect(descriptionPostings),
+                    rarestSize(descriptionPostings));
+        // Union, skip ones already found by name.
+        List<PersistentHashMap<URI, Resource>> finalNamePostings = namePostings;
+        return new TextCandidates(Stream.concat(
+                intersect(namePostings),
+                intersectEntries(descriptionPostings)
+                        .filter(e -> !containsAll(finalNamePostings, e.getKey()))
+                        .map(Map.Entry::getValue)),
+                rarestSize(namePostings) + rarestSize(descriptionPostings));
+    }
+
+    /**
+     * Get resources of each distinct trigram in the term, rarest first.
+     * @return the list, empty if any trigram has no resource, or null if
+     * the term is shorter than a trigram.
+     */
+    private static List<PersistentHashMap<URI, Resource>> postings(
+            PersistentHashMap<Long, PersistentHashMap<URI, Resource>> index, String term) {
+        if (term.length() < GRAM_LENGTH)
+            return null;
+        List<PersistentHashMap<URI, Resource>> postings = new ArrayList<>();
+        for (long gram : distinctGrams(term)) {
+            PersistentHashMap<URI, Resource> resources = index.get(gram);
+            if (resources == null)
+                return Collections.emptyList();
+            postings.add(resources);
+        }
+        postings.sort(Comparator.comparingInt(PersistentHashMap::size));
+        return postings;
+    }
+
+    private static int rarestSize(List<PersistentHashMap<URI, Resource>> postings) {
+        return postings.isEmpty() ? 0 : postings.get(0).size();
+    }
+
+    private static boolean containsAll(List<PersistentHashMap<URI, Resource>> postings, URI uri) {
+        if (postings.isEmpty())
+            return false;
+        for (PersistentHashMap<URI, Resource> resources : postings)
+            if (!resources.containsKey(uri))
+                return false;
+        return true;
+    }
+
+    /**
+     * Walk the rarest postings, filter by the others.
+     */
+    private static Stream<Map.Entry<URI, Resource>> intersectEntries(
+            List<PersistentHashMap<URI, Resource>> postings) {
+        if (postings.isEmpty())
+            return Stream.empty();
+        return postings.get(0).entries().filter(e -> containsAll(postings, e.getKey()));
+    }
+
+    private static Stream<Resource> intersect(List<PersistentHashMap<URI, Resource>> postings) {
+        return intersectEntries(postings).map(Map.Entry::getValue);
+    }
+
+    /**
+     * Pack each three consecutive chars of the string into a long.
+     */
+    private static Set<Long> distinctGrams(String string) {
+        Set<Long> grams = new HashSet<>();
+        for (int i = 0; i + GRAM_LENGTH <= string.length(); i++)
+            grams.add(((long) string.charAt(i) << 32)
+                    | ((long) string.charAt(i + 1) << 16)
+                    | string.charAt(i + 2));
+        return grams;
+    }
+}
@@ -1,23 +1,27 @@
 package EZShare.server;
 
-import EZShare.entities.*;
+import EZShare.entities.Command;
+import EZShare.entities.Hello;
+import EZShare.entities.Response;
 import EZShare.networking.EZInputOutput;
-import EZShare.server.subscription.Subscriber;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import org.apache.commons.lang3.tuple.Pair;
 
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
+import java.util.Set;
 import java.util.logging.Logger;
 
 /**
  * Client who connect and send command to server. Other server connect to our
  * is also treated as Client.
  *
- * This class parses command that sent from client and send back response to
- * client. Actual command handing (lookup resource, update resource, etc.) is
- * done on ClientCommandHandler other than this class itself.
+ * This class reads commands that sent from client on a blocking socket,
+ * one thread per client. Protocol state is kept on ClientSession, and actual
+ * command handing (lookup resource, update resource, etc.) is done on
+ * ClientCommandHandler other than this class itself.
  *
  * This class only do a little check on commands. ClientCommandHandler have to
  * check whether a command is well-formatted and legal.
@@ -66,106 +70,65 @@ class Client implements Runnable {
      * @throws IOException if error on I/O with client.
      */
     private void handleCommand() throws IOException {
-        Command command;
-        try {
-            command = io.readCommand();
-        } catch (JsonMappingException e) {
-            LOGGER.info(String.format("Invalid command: [%s] %s", e, e.getMessage()));
-            io.sendJSON(Response.createError("invalid command"));
-            return;
-        } catch (JsonParseException e) {
-            LOGGER.info(String.format("Failed to parse command: [%s] %s", e, e.getMessage()));
-            io.sendJSON(Response.createError("missing or incorrect type for command"));
-            return;
-        }
-        try {
-            switch (command.getCMD()) {
-                case PUBLISH:
-                    commandHandler.doPublish((Publish) command);
-                    io.sendJSON(Response.createSuccess());
-                    break;
-                case REMOVE:
-                    commandHandler.doRemove((Remove) command);
-                    io.sendJSON(Response.createSuccess());
-                    break;
-                case SHARE:
-                    commandHandler.doShare((Share) command);
-                    io.sendJSON(Response.createSuccess());
-                    break;
-                case QUERY:
-                    int size = commandHandler.doQuery((Query) command,
-                            v -> io.uncheckedSendJSON(Response.createSuccess()),
-                            io::uncheckedSendJSON);
-                    io.sendJSON(new ResultSize(size));
-                    break;
-                case FETCH:
-                    Pair<Resource, InputStream> resInput = commandHandler.doFetch((Fetch) command);
-                    io.sendJSON(Response.createSuccess());
-                    io.sendJSON(resInput.getLeft());
-                    io.writeBinary(resInput.getRight());
-                    io.sendJSON(new ResultSize(1));
-                    break;
-                case EXCHANGE:
-                    commandHandler.doExchange((Exchange) command);
-                    io.sendJSON(Response.createSuccess());
-                    break;
-                case SUBSCRIBE:
-                case UNSUBSCRIBE:
-                    // These two commands is long-live connection.
-                    // We handle it in separated method.
-                    handleSubscription(command);
-                    break;
+        ClientSession session = new ClientSession(new ClientSession.Output() {
+            @Override
+            public void sendJSON(Object value) throws IOException {
+                io.sendJSON(value);
             }
-        } catch (CommandHandleException e) {
-            LOGGER.info(String.format("Fail to handle command %s: %s",
-                    command.getCMD().name(), e.getMessage()));
-            io.sendJSON(Response.createError(e.getMessage()));
-        } catch (UncheckedIOException e) {
-            throw e.getCause();
-        }
-    }
 
-    private void handleSubscription(Command cmd) throws IOException, CommandHandleException {
-        Subscriber subscriber = null;
-        // disable timeout since we are in persistent connection.
-        io.setTimeout(0);
-        Counter<Resource> resourceCounter = new Counter<>();
+            @Override
+            public void writeBinary(FileChannel file) throws IOException {
+                io.writeBinary(file);
+            }
+
+            @Override
+            public void upgrade(Set<String> features, Response response) throws IOException {
+                io.sendJSON(response);
+                io.setFeatures(features);
+            }
+
+            @Override
+            public void abort() {
+                // Blocked read on the socket returns then.
+                io.close();
+            }
+        }, commandHandler);
+        // Waiting for next command on a keep-alive connection.
+        boolean idle = false;
         try {
-            // noinspection InfiniteLoopStatement
             while (true) {
-                switch (cmd.getCMD()) {
-                    case SUBSCRIBE:
-                        Subscribe subCmd = (Subscribe) cmd;
-                        if (subscriber == null)
-                            subscriber = commandHandler
-                                    .doSubscription(subCmd, (res) ->
-                                            io.uncheckedSendJSON(resourceCounter.count(res)));
-                        else
-                            commandHandler.doSubscription(subCmd, subscriber);
-                        io.sendJSON(Response.createSuccess(subCmd.getId()));
-                        break;
-                    case UNSUBSCRIBE:
-                        if (subscriber != null)
-                            commandHandler.doUnsubscribe((Unsubscribe) cmd, subscriber);
-                        if (subscriber == null || subscriber.isEmpty()) {
-                            // As per spec, connection should close by server when
-                            // all are subscribed.
-                            io.sendJSON(new ResultSize(resourceCounter.getCount()));
-                            return;
-                        }
-                        break;
-                    default:
-                        LOGGER.info("unexpected command: " + cmd.getCMD());
-                        throw new CommandHandleException(
-                                "unexpected command in persistent connection");
+                Command command;
+                try {
+                    command = io.readCommand();
+                } catch (JsonMappingException | JsonParseException e) {
+                    if (session.isPersistent())
+                        throw e;
+                    session.handleInvalidCommand(e);
+                    return;
+                } catch (SocketTimeoutException e) {
+                    if (!idle)
+                        throw e;
+                    LOGGER.fine("idle timeout on keep-alive connection " + io);
+                    return;
+                }
+                if (!session.handleCommand(command))
+                    break;
+                if (session.isPersistent()) {
+                    // disable timeout since we are in persistent connection.
+                    io.setTimeout(0);
+                } else if (session.isKeepAlive() && !(command instanceof Hello)) {
+                    // Only after a real command, still waiting for the
+                    // first one after HELLO.
+                    idle = true;
+                    io.setTimeout(ClientSession.KEEP_ALIVE_TIMEOUT_MILLIS);
                 }
-                cmd = io.readCommand();
             }
         } catch (EOFException e) {
+            if (!session.isPersistent() && !idle)
+                throw e;
             LOGGER.fine("EoF reached, unsubscribe all.");
         } finally {
-            if (subscriber != null)
-                subscriber.unsubscribeAll();
+            session.close();
         }
     }
 
@@ -4,7 +4,8 @@ import EZShare.entities.*;
 import EZShare.server.subscription.Subscriber;
 import org.apache.commons.lang3.tuple.Pair;
 
-import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.List;
 import java.util.function.Consumer;
 
 /**
@@ -15,12 +16,19 @@ public interface ClientCommandHandler {
     void doPublish(Publish cmd) throws CommandHandleException;
     void doRemove(Remove cmd) throws CommandHandleException;
     void doShare(Share cmd) throws CommandHandleException;
-    int doQuery(Query cmd, Consumer<Void> ok, Consumer<Resource> consumer)
+    ResultSize doQuery(Query cmd, Consumer<Void> ok, Consumer<Resource> consumer)
             throws CommandHandleException;
-    Pair<Resource, InputStream> doFetch(Fetch cmd) throws CommandHandleException;
+    Pair<Resource, FileChannel> doFetch(Fetch cmd) throws CommandHandleException;
     void doExchange(Exchange cmd) throws CommandHandleException;
-    Subscriber doSubscription(Subscribe cmd, Consumer<Resource> consumer)
-            throws CommandHandleException;
+    ContentSummary getContentSummary();
+    String getMembershipEpoch();
+    void doPing(Ping cmd) throws CommandHandleException;
+    /**
+     * @param consumer send subscribed resources to client, may block.
+     * @param onOverflow close the connection, if client is too slow.
+     */
+    Subscriber doSubscription(Subscribe cmd, Consumer<List<Notification>> consumer,
+                              Runnable onOverflow) throws CommandHandleException;
     void doSubscription(Subscribe cmd, Subscriber subscriber)
             throws CommandHandleException;
     void doUnsubscribe(Unsubscribe cmd, Subscriber subscriber)
@@ -0,0 +1,268 @@
+package EZShare.server;
+
+import EZShare.entities.*;
+import EZShare.networking.Features;
+import EZShare.networking.ResourceBatcher;
+import EZShare.server.subscription.Subscriber;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Protocol state of one client connection, regardless of how its bytes
+ * are moved (see {@link Client} and {@link NioClient}).
+ *
+ * Commands are fed one by one with {@link #handleCommand(Command)}. Most of
+ * commands end the session after their response, only SUBSCRIBE turns the
+ * session into a persistent one that accepts further SUBSCRIBE and
+ * UNSUBSCRIBE commands. An optional HELLO may come before the first command.
+ * If {@link Features#KEEPALIVE} is negotiated by HELLO, the session is kept
+ * after each command for the next one, until the client closes it or keeps
+ * idle for {@link #KEEP_ALIVE_TIMEOUT_MILLIS}.
+ * If {@link Features#BATCH} is negotiated, resources of QUERY and
+ * SUBSCRIBE are sent in batches, see {@link ResourceBatcher}.
+ *
+ * Created on 2026/10/18.
+ */
+class ClientSession {
+    private final static Logger LOGGER = Logger.getLogger(ClientSession.class.getName());
+    // Greater than idle timeout of ConnectionPool.
+    final static int KEEP_ALIVE_TIMEOUT_MILLIS = 60 * 1000;
+    // Local results of a relayed query don't wait for other servers longer.
+    private final static int QUERY_LINGER_MILLIS = 5;
+
+    /**
+     * Where responses are sent to.
+     * Must be thread-safe, subscribed resources are sent from other threads.
+     */
+    interface Output {
+        void sendJSON(Object value) throws IOException;
+        /**
+         * Write the whole file, with the fastest way available.
+         */
+        void writeBinary(FileChannel file) throws IOException;
+
+        /**
+         * Send the response of HELLO, then switch both directions to the
+         * negotiated features for following frames.
+         */
+        void upgrade(Set<String> features, Response response) throws IOException;
+
+        /**
+         * Close the connection from another thread, e.g. when a subscriber
+         * is too slow.
+         */
+        void abort();
+    }
+
+    final private Output output;
+    final private ClientCommandHandler commandHandler;
+    final private Counter<Resource> resourceCounter = new Counter<>();
+    private Subscriber subscriber;
+    private boolean persistent;
+    private boolean negotiated;
+    private volatile boolean keepAlive;
+    private boolean summary;
+    private boolean membership;
+    private volatile boolean batch;
+    private volatile boolean notification;
+    // For the writer of subscriber, one at a time.
+    private ResourceBatcher subscriptionBatcher;
+
+    ClientSession(Output output, ClientCommandHandler commandHandler) {
+        this.output = output;
+        this.commandHandler = commandHandler;
+    }
+
+    private void uncheckedSendJSON(Object value) throws UncheckedIOException {
+        try {
+            output.sendJSON(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Whether the session is in a long-live connection, and more commands
+     * are expected.
+     */
+    boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Whether the session waits for next command once current one is done.
+     */
+    boolean isKeepAlive() {
+        return keepAlive && !persistent;
+    }
+
+    /**
+     * Send back error response for a command that failed to parse, before
+     * the session become persistent.
+     * @param e exception thrown on parsing.
+     * @throws IOException if error on I/O with client.
+     */
+    void handleInvalidCommand(IOException e) throws IOException {
+        if (e instanceof JsonMappingException) {
+            LOGGER.info(String.format("Invalid command: [%s] %s", e, e.getMessage()));
+            output.sendJSON(Response.createError("invalid command"));
+        } else if (e instanceof JsonParseException) {
+            LOGGER.info(String.format("Failed to parse command: [%s] %s", e, e.getMessage()));
+            output.sendJSON(Response.createError("missing or incorrect type for command"));
+        } else {
+            throw e;
+        }
+    }
+
+    /**
+     * Handle one command from client.
+     * @param command to handle.
+     * @return true if the connection should be kept for more commands.
+     * @throws IOException if error on I/O with client.
+     */
+    boolean handleCommand(Command command) throws IOException {
+        try {
+            if (persistent)
+                return handleSubscription(command);
+            switch (command.getCMD()) {
+                case PUBLISH:
+                    commandHandler.doPublish((Publish) command);
+                    output.sendJSON(Response.createSuccess());
+                    break;
+                case REMOVE:
+                    commandHandler.doRemove((Remove) command);
+                    output.sendJSON(Response.createSuccess());
+                    break;
+                case SHARE:
+                    commandHandler.doShare((Share) command);
+                    output.sendJSON(Response.createSuccess());
+                    break;
+                case QUERY:
+                    ResourceBatcher batcher = batch ?
+                            new ResourceBatcher(this::uncheckedSendJSON, QUERY_LINGER_MILLIS) : null;
+                    ResultSize size = commandHandler.doQuery((Query) command,
+                            v -> uncheckedSendJSON(Response.createSuccess()),
+                            batcher != null ? batcher : this::uncheckedSendJSON);
+                    if (batcher != null)
+                        batcher.flush();
+                    output.sendJSON(size);
+                    break;
+                case FETCH:
+                    Pair<Resource, FileChannel> resFile = commandHandler.doFetch((Fetch) command);
+                    try (FileChannel file = resFile.getRight()) {
+                        output.sendJSON(Response.createSuccess());
+                        output.sendJSON(resFile.getLeft());
+                        output.writeBinary(file);
+                    }
+                    output.sendJSON(new ResultSize(1));
+                    break;
+                case EXCHANGE:
+                    commandHandler.doExchange((Exchange) command);
+                    output.sendJSON(summary || membership ?
+                            Response.createSuccessOnExchange(
+                                    summary ? commandHandler.getContentSummary() : null,
+                                    membership ? commandHandler.getMembershipEpoch() : null) :
+                            Response.createSuccess());
+                    break;
+                case PING:
+                    commandHandler.doPing((Ping) command);
+                    output.sendJSON(Response.createSuccess());
+                    break;
+                case HELLO:
+                    if (negotiated)
+                        throw new CommandHandleException("features already negotiated");
+                    negotiated = true;
+                    Set<String> features = Features.accept(((Hello) command).getFeatures());
+                    keepAlive = features.contains(Features.KEEPALIVE);
+                    summary = features.contains(Features.SUMMARY);
+                    membership = features.contains(Features.MEMBERSHIP);
+                    batch = features.contains(Features.BATCH);
+                    notification = features.contains(Features.NOTIFICATION);
+                    output.upgrade(features,
+                            Response.createSuccessWithFeatures(new ArrayList<>(features)));
+                    // Wait for the actual command.
+                    return true;
+                case SUBSCRIBE:
+                case UNSUBSCRIBE:
+                    // These two commands is long-live connection.
+                    persistent = true;
+                    return handleSubscription(command);
+            }
+        } catch (CommandHandleException e) {
+            LOGGER.info(String.format("Fail to handle command %s: %s",
+                    command.getCMD().name(), e.getMessage()));
+            output.sendJSON(Response.createError(e.getMessage()));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return keepAlive;
+    }
+
+    private boolean handleSubscription(Command cmd) throws IOException, CommandHandleException {
+        switch (cmd.getCMD()) {
+            case SUBSCRIBE:
+                Subscribe subCmd = (Subscribe) cmd;
+                if (subscriber == null)
+                    subscriber = commandHandler
+                            .doSubscription(subCmd, this::sendSubscribed, output::abort);
+                else
+                    commandHandler.doSubscription(subCmd, subscriber);
+                output.sendJSON(Response.createSuccess(subCmd.getId()));
+                return true;
+            case UNSUBSCRIBE:
+                if (subscriber != null)
+                    commandHandler.doUnsubscribe((Unsubscribe) cmd, subscriber);
+                if (subscriber == null || subscriber.isEmpty()) {
+                    // As per spec, connection should close by server when
+                    // all are subscribed.
+                    output.sendJSON(new ResultSize(resourceCounter.getCount()));
+                    return false;
+                }
+                return true;
+            default:
+                LOGGER.info("unexpected command: " + cmd.getCMD());
+                throw new CommandHandleException(
+                        "unexpected command in persistent connection");
+        }
+    }
+
+    /**
+     * Send resources taken from the outbound queue of subscriber at once,
+     * in batches if negotiated. Clients that don't support NOTIFICATION
+     * get bare resources.
+     */
+    private void sendSubscribed(List<Notification> notifications) throws UncheckedIOException {
+        notifications.forEach(n -> resourceCounter.count(n.getResource()));
+        if (!batch) {
+            notifications.forEach(n -> uncheckedSendJSON(notification ? n : n.getResource()));
+            return;
+        }
+        if (subscriptionBatcher == null)
+            subscriptionBatcher = new ResourceBatcher(this::uncheckedSendJSON, 0);
+        for (Notification n : notifications) {
+            if (notification)
+                subscriptionBatcher.add(n);
+            else
+                subscriptionBatcher.accept(n.getResource());
+        }
+        subscriptionBatcher.flush();
+    }
+
+    /**
+     * Release everything the session holds. Must be called when the
+     * connection closed.
+     */
+    void close() {
+        if (subscriber != null)
+            subscriber.close();
+    }
+}
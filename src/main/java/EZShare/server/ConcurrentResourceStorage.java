@@ -0,0 +1,107 @@
+package EZShare.server;
+
+import EZShare.entities.Resource;
+import EZShare.entities.TemplateMatcher;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Store resources on memory, indexed like {@link IndexedResourceStorage}
+ * but safe to use from many threads at once.
+ *
+ * Each channel has its own lock for writers, so commands on different
+ * channels never block each other. Owner checking on update & remove is
+ * done atomically under the channel's lock.
+ *
+ * Readers take no lock. Writers replace the channel's immutable
+ * {@link ChannelIndex} with a new version, so a query keeps walking the
+ * version it started with, lazily, however long it takes.
+ *
+ * Created on 2026/10/18.
+ */
+public class ConcurrentResourceStorage implements ResourceStorage {
+    private final ConcurrentHashMap<String, Channel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Get the channel, create it if not exist.
+     * Empty channels are never dropped, otherwise a writer may still hold
+     * a dropped one and lose its update.
+     */
+    private Channel getChannel(String channel) {
+        return channels.computeIfAbsent(channel, c -> new Channel());
+    }
+
+    private ChannelIndex getSnapshot(String channel) {
+        Channel c = channels.get(channel);
+        return c == null ? ChannelIndex.EMPTY : c.index;
+    }
+
+    @Override
+    public void put(String channel, URI uri, Resource resource) {
+        Channel c = getChannel(channel);
+        synchronized (c) {
+            c.index = c.index.put(uri, resource);
+        }
+    }
+
+    @Override
+    public Resource get(String channel, URI uri) {
+        return getSnapshot(channel).get(uri);
+    }
+
+    @Override
+    public void remove(String channel, URI uri) {
+        Channel c = channels.get(channel);
+        if (c == null)
+            return;
+        synchronized (c) {
+            c.index = c.index.remove(uri);
+        }
+    }
+
+    @Override
+    public boolean updateResource(Resource resource) {
+        URI uri = resource.getNormalizedUri();
+        Channel c = getChannel(resource.getChannel());
+        synchronized (c) {
+            Resource oldResource = c.index.get(uri);
+            if (oldResource != null && !oldResource.getOwner().equals(resource.getOwner()))
+                return false;
+            c.index = c.index.put(uri, resource);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean removeResource(Resource resource) {
+        URI uri = resource.getNormalizedUri();
+        Channel c = channels.get(resource.getChannel());
+        if (c == null)
+            return false;
+        synchronized (c) {
+            Resource oldResource = c.index.get(uri);
+            if (oldResource == null || !oldResource.getOwner().equals(resource.getOwner()))
+                return false;
+            c.index = c.index.remove(uri);
+            return true;
+        }
+    }
+
+    /**
+     * The returned stream lazily walks a snapshot of the channel, later
+     * changes are not visible to it.
+     */
+    @Override
+    public Stream<Resource> templateQuery(Resource template) {
+        TemplateMatcher matcher = TemplateMatcher.compile(template);
+        return getSnapshot(template.getChannel()).candidates(template)
+                .filter(matcher::matches);
+    }
+
+    private static class Channel {
+        // Written under lock of this channel, read without lock.
+        volatile ChannelIndex index = ChannelIndex.EMPTY;
+    }
+}
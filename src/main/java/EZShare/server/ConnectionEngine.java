@@ -0,0 +1,17 @@
+package EZShare.server;
+
+/**
+ * How the server moves bytes with its clients.
+ * Created on 2026/10/18.
+ */
+public enum ConnectionEngine {
+    /**
+     * Blocking sockets, one thread per connection.
+     */
+    BLOCKING,
+    /**
+     * Non-blocking channels on a few selector threads. Commands are still
+     * handled on worker threads.
+     */
+    NIO
+}
@@ -0,0 +1,39 @@
+package EZShare.server;
+
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reject connections from the same IP that come too frequently.
+ * Created on 2026/10/18.
+ */
+class ConnectionLimiter {
+    private final long intervalLimitMillis;
+    private final Map<String, Long> lastAcceptTimestamps = new HashMap<>();
+    private long lastCleanupTable = System.currentTimeMillis();
+
+    ConnectionLimiter(double intervalLimitSeconds) {
+        intervalLimitMillis = (long) (intervalLimitSeconds * 1000);
+    }
+
+    /**
+     * Check and record a new connection.
+     * @param address of the remote peer.
+     * @return true if accept, false if the address connecting too frequently.
+     */
+    synchronized boolean tryAccept(InetAddress address) {
+        long now = System.currentTimeMillis();
+        long lastAcceptTimeMillis = lastAcceptTimestamps.getOrDefault(
+                address.getHostAddress(), -intervalLimitMillis);
+        if (now - lastAcceptTimeMillis < intervalLimitMillis)
+            return false;
+        lastAcceptTimestamps.put(address.getHostAddress(), now);
+        // Clean up lastAcceptTimestamps if we have many entries in it.
+        if (lastAcceptTimestamps.size() > 64 && now - lastCleanupTable > intervalLimitMillis) {
+            lastAcceptTimestamps.values().removeIf(t -> now - t >= intervalLimitMillis);
+            lastCleanupTable = now;
+        }
+        return true;
+    }
+}
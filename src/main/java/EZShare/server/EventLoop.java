@@ -0,0 +1,128 @@
+package EZShare.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A selector thread serving many {@link NioClient}.
+ *
+ * Only this thread touches selection keys. Other threads ask for changes
+ * by {@link #register(NioClient)} and {@link #requestFlush(NioClient)}.
+ * An unexpected error on one client closes that client only.
+ *
+ * Created on 2026/10/18.
+ */
+class EventLoop implements Runnable {
+    private final static Logger LOGGER = Logger.getLogger(EventLoop.class.getName());
+    private final static long CHECK_TIMEOUT_INTERVAL_MILLIS = 1000;
+
+    private final Selector selector;
+    private final Queue<NioClient> newClients = new ConcurrentLinkedQueue<>();
+    private final Queue<NioClient> flushRequests = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    EventLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    void register(NioClient client) {
+        newClients.add(client);
+        selector.wakeup();
+    }
+
+    /**
+     * Ask this loop to write out the client's outbound queue.
+     */
+    void requestFlush(NioClient client) {
+        flushRequests.add(client);
+        selector.wakeup();
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long lastCheckTimeout = System.currentTimeMillis();
+        try {
+            while (running) {
+                selector.select(CHECK_TIMEOUT_INTERVAL_MILLIS);
+                NioClient client;
+                while ((client = newClients.poll()) != null) {
+                    NioClient newClient = client;
+                    handle(client, () -> {
+                        try {
+                            newClient.attach(newClient.getChannel().register(
+                                    selector, SelectionKey.OP_READ, newClient));
+                        } catch (ClosedChannelException e) {
+                            newClient.close();
+                        }
+                    });
+                }
+                while ((client = flushRequests.poll()) != null)
+                    handle(client, client::onWritable);
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioClient selected = (NioClient) key.attachment();
+                    handle(selected, () -> {
+                        if (key.isValid() && key.isReadable())
+                            selected.onReadable();
+                        if (key.isValid() && key.isWritable())
+                            selected.onWritable();
+                    });
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastCheckTimeout >= CHECK_TIMEOUT_INTERVAL_MILLIS) {
+                    for (SelectionKey key : selector.keys()) {
+                        NioClient timedClient = (NioClient) key.attachment();
+                        handle(timedClient, () -> timedClient.checkTimeout(now));
+                    }
+                    lastCheckTimeout = now;
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warning("event loop stopped due to " + e);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "event loop stopped due to unexpected error", e);
+        } finally {
+            for (SelectionKey key : selector.keys())
+                ((NioClient) key.attachment()).close();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                LOGGER.fine("error on close selector: " + e);
+            }
+        }
+    }
+
+    /**
+     * Run an event of the client, close the client if it fails unexpectedly
+     * (e.g. SSLEngine in a bad state, or a key cancelled meanwhile), so that
+     * other clients on this loop are not affected.
+     */
+    private static void handle(NioClient client, Runnable event) {
+        try {
+            event.run();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "unexpected error on client " + client + ", close it", e);
+            try {
+                client.close();
+            } catch (RuntimeException closeError) {
+                LOGGER.fine("error on close client " + client + ": " + closeError);
+            }
+        }
+    }
+}
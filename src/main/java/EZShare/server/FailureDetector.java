@@ -0,0 +1,248 @@
+package EZShare.server;
+
+import EZShare.entities.Exchange;
+import EZShare.entities.Ping;
+import EZShare.entities.Server;
+import EZShare.networking.ConnectionPool;
+import EZShare.networking.Features;
+import EZShare.networking.HelloRejectedException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * SWIM-like failure detector of servers on the list.
+ *
+ * On each protocol period, one server is probed directly, in random
+ * round-robin order (see {@link Membership#nextProbeTarget()}). If it
+ * doesn't respond, a few other servers are asked to probe it (indirect
+ * probe), so that a problem between us and it alone won't get it removed.
+ * If still no response, it's suspected. Suspected servers are probed on
+ * every period, any response clears the suspicion, otherwise they are
+ * removed after the suspicion timeout.
+ *
+ * Unlike SWIM, suspicion is not disseminated to others, removal is a local
+ * decision of each server, as it was.
+ *
+ * Servers that don't know PING are probed with an EXCHANGE with only us,
+ * any response means alive.
+ *
+ * Other commands answered by a server in the last period, e.g. relayed
+ * queries and EXCHANGE, count as an ack, it's not probed then. Servers
+ * that don't keep connections alive are not probed for a few periods
+ * after an ack. A probe on
+ * a connection that the server closed right away, without any response,
+ * is inconclusive: servers close connections coming too often from the
+ * same address (connection interval limit), which happens to servers
+ * that don't keep connections alive. The server is neither suspected nor
+ * cleared by it.
+ *
+ * Created on 2026/10/18.
+ */
+class FailureDetector {
+    private final static Logger LOGGER = Logger.getLogger(FailureDetector.class.getName());
+    private final static int PROBE_INTERVAL_MILLIS = 1000;
+    private final static int PROBE_TIMEOUT_MILLIS = 500;
+    // Helper probes on its own, give it the same time plus some for us.
+    private final static int INDIRECT_PROBE_TIMEOUT_MILLIS = 2 * PROBE_TIMEOUT_MILLIS;
+    private final static int INDIRECT_PROBES = 3;
+    private final static int SUSPICION_TIMEOUT_MILLIS = 5 * PROBE_INTERVAL_MILLIS;
+    // A probe takes a new connection to servers that don't keep them
+    // alive, which competes with other commands under their connection
+    // interval limit, probe them less often.
+    private final static int UNPOOLED_PROBE_INTERVAL_MILLIS = 4 * PROBE_INTERVAL_MILLIS;
+
+    private final Membership membership;
+    private final ConnectionPool connectionPool;
+    private final Server localServer;
+    private final ExecutorService executorService;
+    private final Consumer<Server> removedCallback;
+    // Server -> when it last responded.
+    private final ConcurrentHashMap<Server, Long> lastAcks = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "failure-detector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param membership to check, guarded by itself.
+     * @param executorService to run indirect probes.
+     * @param removedCallback accept servers removed as dead.
+     */
+    FailureDetector(Membership membership, ConnectionPool connectionPool, Server localServer,
+                    ExecutorService executorService, Consumer<Server> removedCallback) {
+        this.membership = membership;
+        this.connectionPool = connectionPool;
+        this.localServer = localServer;
+        this.executorService = executorService;
+        this.removedCallback = removedCallback;
+    }
+
+    void start() {
+        scheduler.scheduleWithFixedDelay(this::runProtocolPeriod,
+                PROBE_INTERVAL_MILLIS, PROBE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Outcome of a probe.
+     */
+    enum ProbeResult {
+        ACK,
+        NO_RESPONSE,
+        // Closed without response.
+        INCONCLUSIVE,
+    }
+
+    private void runProtocolPeriod() {
+        try {
+            Server target;
+            Set<Server> suspects;
+            synchronized (membership) {
+                target = membership.nextProbeTarget();
+                suspects = membership.getSuspects();
+            }
+            if (target != null && !suspects.contains(target) && !isAckedLately(target)) {
+                ProbeResult result = probe(target);
+                if (result == ProbeResult.NO_RESPONSE && probeIndirectly(target))
+                    result = ProbeResult.ACK;
+                if (result == ProbeResult.ACK)
+                    alive(target);
+                else if (result == ProbeResult.NO_RESPONSE)
+                    suspect(target);
+            }
+            for (Server suspect : suspects)
+                if (!isAckedLately(suspect) && probe(suspect) == ProbeResult.ACK)
+                    alive(suspect);
+            List<Server> removed;
+            synchronized (membership) {
+                removed = membership.removeExpiredSuspects(SUSPICION_TIMEOUT_MILLIS);
+            }
+            removed.forEach(server -> {
+                LOGGER.info(server + " is dead, removed");
+                forget(server);
+                removedCallback.accept(server);
+            });
+        } catch (RuntimeException e) {
+            // Otherwise the scheduler stop silently.
+            LOGGER.warning("error on failure detection: " + e);
+        }
+    }
+
+    private boolean isAckedLately(Server server) {
+        Long lastAck = lastAcks.get(server);
+        if (lastAck == null)
+            return false;
+        long interval = connectionPool.isReusable(server) ?
+                PROBE_INTERVAL_MILLIS : UNPOOLED_PROBE_INTERVAL_MILLIS;
+        return System.currentTimeMillis() - lastAck < interval;
+    }
+
+    /**
+     * Probe a server directly.
+     */
+    ProbeResult probe(Server server) {
+        try (ConnectionPool.Lease lease = connectionPool.send(server, features ->
+                features.contains(Features.PING) ?
+                        new Ping() : new Exchange(Collections.singletonList(localServer)),
+                PROBE_TIMEOUT_MILLIS)) {
+            // Even an error response means it's alive.
+            lease.release();
+            return ProbeResult.ACK;
+        } catch (HelloRejectedException e) {
+            // Also a response, next probe goes without HELLO.
+            return ProbeResult.ACK;
+        } catch (EOFException e) {
+            LOGGER.fine(String.format("%s closed the probe: %s", server, e));
+            return ProbeResult.INCONCLUSIVE;
+        } catch (IOException e) {
+            if (e instanceof SocketException && !(e instanceof ConnectException)
+                    && !(e instanceof NoRouteToHostException)) {
+                // Reset, closed before the command was sent.
+                LOGGER.fine(String.format("%s closed the probe: %s", server, e));
+                return ProbeResult.INCONCLUSIVE;
+            }
+            LOGGER.fine(String.format("no response from %s: %s", server, e));
+            return ProbeResult.NO_RESPONSE;
+        }
+    }
+
+    private boolean probeIndirectly(Server server) {
+        List<Server> helpers;
+        synchronized (membership) {
+            helpers = membership.getRandomServers(INDIRECT_PROBES, server);
+        }
+        if (helpers.isEmpty())
+            return false;
+        CompletionService<Boolean> completionService = new ExecutorCompletionService<>(executorService);
+        helpers.forEach(helper -> completionService.submit(() -> {
+            try (ConnectionPool.Lease lease = connectionPool.send(
+                    helper, new Ping(server), INDIRECT_PROBE_TIMEOUT_MILLIS)) {
+                lease.release();
+                return lease.getResponse().isSuccess();
+            }
+        }));
+        long deadline = System.currentTimeMillis() + INDIRECT_PROBE_TIMEOUT_MILLIS;
+        try {
+            for (int i = 0; i < helpers.size(); i++) {
+                Future<Boolean> result = completionService.poll(
+                        deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                if (result == null)
+                    break;
+                try {
+                    if (result.get())
+                        return true;
+                } catch (ExecutionException e) {
+                    LOGGER.fine("indirect probe failed: " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * The server is known alive, by probes or other commands.
+     */
+    void alive(Server server) {
+        lastAcks.put(server, System.currentTimeMillis());
+        boolean refuted;
+        synchronized (membership) {
+            refuted = membership.refute(server);
+        }
+        if (refuted)
+            LOGGER.info(server + " is alive, no longer suspected");
+    }
+
+    /**
+     * Forget a server removed from the list.
+     */
+    void forget(Server server) {
+        lastAcks.remove(server);
+    }
+
+    /**
+     * The server is likely dead, by probes or other commands.
+     */
+    void suspect(Server server) {
+        boolean suspected;
+        synchronized (membership) {
+            suspected = membership.suspect(server);
+        }
+        if (suspected)
+            LOGGER.info(String.format("%s is suspected, removed in %d ms unless it responds",
+                    server, SUSPICION_TIMEOUT_MILLIS));
+    }
+}
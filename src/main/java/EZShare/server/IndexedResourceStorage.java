@@ -0,0 +1,71 @@
+package EZShare.server;
+
+import EZShare.entities.Resource;
+import EZShare.entities.TemplateMatcher;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.stream.Stream;
+
+/**
+ * Store resources on memory, indexed by channel, then by owner and URI.
+ * A template query only visit resources in the template's channel, and
+ * in the owner's or URI's bucket if the template specify one.
+ * Every method is synchronized on the storage itself, see
+ * {@link ConcurrentResourceStorage} for a finer-grained one.
+ * Created on 2026/10/18.
+ */
+public class IndexedResourceStorage implements ResourceStorage {
+    private final HashMap<String, ChannelIndex> channels = new HashMap<>();
+
+    @Override
+    public synchronized void put(String channel, URI uri, Resource resource) {
+        channels.put(channel, channels.getOrDefault(channel, ChannelIndex.EMPTY).put(uri, resource));
+    }
+
+    @Override
+    public synchronized Resource get(String channel, URI uri) {
+        ChannelIndex index = channels.get(channel);
+        return index == null ? null : index.get(uri);
+    }
+
+    @Override
+    public synchronized void remove(String channel, URI uri) {
+        ChannelIndex index = channels.get(channel);
+        if (index == null)
+            return;
+        index = index.remove(uri);
+        if (index.isEmpty())
+            channels.remove(channel);
+        else
+            channels.put(channel, index);
+    }
+
+    @Override
+    public synchronized boolean updateResource(Resource resource) {
+        return ResourceStorage.super.updateResource(resource);
+    }
+
+    @Override
+    public synchronized boolean removeResource(Resource resource) {
+        return ResourceStorage.super.removeResource(resource);
+    }
+
+    /**
+     * The returned stream lazily walks a snapshot of the channel, so it is
+     * safe to consume without holding the lock.
+     */
+    @Override
+    public Stream<Resource> templateQuery(Resource template) {
+        ChannelIndex index;
+        synchronized (this) {
+            index = channels.get(template.getChannel());
+        }
+        if (index == null)
+            return Stream.empty();
+        TemplateMatcher matcher = TemplateMatcher.compile(template);
+        return index.candidates(template)
+                .filter(matcher::matches);
+    }
+
+}
@@ -1,22 +1,44 @@
 package EZShare.server;
 
 import EZShare.entities.*;
+import EZShare.networking.ConnectionPool;
 import EZShare.networking.EZInputOutput;
+import EZShare.networking.Features;
+import EZShare.networking.HelloRejectedException;
+import org.apache.commons.lang3.tuple.Pair;
 
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.SocketTimeoutException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
  * Provide following services:
  *   - Maintenance a list of remote servers.
- *      - Exchange the list to other servers periodically.
- *      - Remove lost servers from the list.
+ *      - Exchange the list to other servers periodically, only changes
+ *        since last time if possible, see {@link Membership}.
+ *      - Remove lost servers from the list, see {@link FailureDetector}.
  *      - Allow add servers via addServers() method.
  *   - Send query to each of servers on the list, collect & return results.
  *
+ *   Connections to other servers are pooled and reused by following
+ *   queries and exchanges, if the other server supports keep-alive.
+ *   Health of each server is tracked by {@link PeerStats}, failing servers
+ *   are skipped on queries for a while, and slow ones are hedged by their
+ *   replicas. Servers whose {@link PeerSummaries summary} rules out the
+ *   query are not queried at all.
+ *
  *   This class do not receive EXCHANGE command (it only send that), incoming
  *   EXCHANGE command must be handle elsewhere and only to add servers with
  *   addServers() method.
@@ -27,14 +49,26 @@ public class InterServerService implements Runnable {
     private final static Logger LOGGER = Logger.getLogger(InterServerService.class.getName());
     // We may not want server start too many threads on user's query request.
     private final static int MAX_QUERY_THREAD = 32;
-    // 10 secs for inter-server queries, less than others.
+    // 10 secs for inter-server commands other than queries, less than others.
     private final static int MAX_SOCKET_TIMEOUT = 10 * 1000;
 
-    private final Set<Server> servers = new HashSet<>();
+    // Guarded by itself.
+    private final Membership membership = new Membership();
+    // Changes on restart, so that others know what we have forgotten.
+    private final String epoch = UUID.randomUUID().toString();
     private final Server localServer;
-    private final ExecutorService executorService = Executors.newFixedThreadPool(MAX_QUERY_THREAD);
-    private final boolean secure;
-    private Consumer<Set<Server>> serverListUpdatedCallback;
+    private final ExecutorService executorService;
+    private final ConnectionPool connectionPool;
+    private final PeerStats peerStats = new PeerStats();
+    private final ReplicaGroups replicaGroups = new ReplicaGroups();
+    private final PeerSummaries peerSummaries = new PeerSummaries();
+    private final ScheduledExecutorService hedgeTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "relay-hedge-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final FailureDetector failureDetector;
+    private BiConsumer<Set<Server>, Set<Server>> serverListChangedCallback;
 
     private long exchangeIntervalMillis;
     private boolean isRunning;
@@ -47,9 +81,12 @@ public class InterServerService implements Runnable {
      *                               the list.
      */
     InterServerService(String hostname, int port, boolean isSecure,
-                       long exchangeIntervalMillis) {
+                       long exchangeIntervalMillis, ThreadMode threadMode) {
         localServer = new Server(hostname, port);
-        secure = isSecure;
+        connectionPool = new ConnectionPool(isSecure, MAX_SOCKET_TIMEOUT, Features.SUPPORTED);
+        executorService = threadMode.newFixedPool(MAX_QUERY_THREAD);
+        failureDetector = new FailureDetector(membership, connectionPool, localServer,
+                executorService, this::forgetServer);
         this.exchangeIntervalMillis = exchangeIntervalMillis;
     }
 
@@ -60,6 +97,8 @@ public class InterServerService implements Runnable {
      */
     @Override
     public void run() {
+        registerMBean();
+        failureDetector.start();
         isRunning = true;
         while (isRunning) {
             try {
@@ -72,12 +111,18 @@ public class InterServerService implements Runnable {
             if (server == null)
                 continue;
             try {
-                sendExchangeCommand(server);
-            } catch (IOException e) {
-                synchronized (this.servers) {
-                    this.servers.remove(server);
+                if (!sendExchangeCommand(server, false)) {
+                    LOGGER.fine(server + " has restarted, send the whole list");
+                    sendExchangeCommand(server, true);
                 }
-                LOGGER.fine("fail to exchange with " + server + ", removed");
+                failureDetector.alive(server);
+            } catch (HelloRejectedException e) {
+                // Alive, exchange without HELLO next time.
+                LOGGER.fine(e.getMessage());
+                failureDetector.alive(server);
+            } catch (IOException e) {
+                LOGGER.fine("fail to exchange with " + server + ": " + e);
+                failureDetector.suspect(server);
             }
 
         }
@@ -88,7 +133,8 @@ public class InterServerService implements Runnable {
      * @return a server or null if servers is empty.
      */
     private Server getRandomServer() {
-        synchronized (servers) {
+        synchronized (membership) {
+            Set<Server> servers = membership.getServers();
             return servers.stream()
                     .skip((int) (servers.size() * Math.random()))
                     .findFirst().orElse(null);
@@ -97,28 +143,74 @@ public class InterServerService implements Runnable {
 
     /**
      * Send exchange command with server list to other server.
+     * Only servers added since last exchange with it are sent, unless
+     * forceFull or see {@link Membership}.
      * @param server that exchange send to.
+     * @param forceFull send the whole list.
+     * @return false if the server missed servers sent before, the whole
+     * list should be sent again.
      * @throws IOException if error on networking.
      */
-    private void sendExchangeCommand(Server server) throws IOException {
-        EZInputOutput io = new EZInputOutput(server, secure);
-        Exchange exchange;
-        synchronized (servers) {
-            List<Server> serverList = new ArrayList<>(servers.size() + 1);
-            serverList.add(localServer);
-            serverList.addAll(servers);
-            exchange = new Exchange(serverList);
-        }
-        io.sendJSON(exchange);
-        Response response = io.readResponse();
-        if (!response.isSuccess())
-            LOGGER.fine(String.format("failed to exchange with %s: %s", server, response));
-        else
-            LOGGER.fine("exchange send successfully to " + server);
+    private boolean sendExchangeCommand(Server server, boolean forceFull) throws IOException {
+        Membership.Changes changes;
+        synchronized (membership) {
+            changes = membership.getChangesFor(server, forceFull);
+        }
+        List<Server> serverList = new ArrayList<>(changes.servers.size() + 1);
+        // Never empty, the server at least knows us.
+        serverList.add(localServer);
+        serverList.addAll(changes.servers);
+        try (ConnectionPool.Lease lease = connectionPool.send(server, new Exchange(serverList))) {
+            Response response = lease.getResponse();
+            lease.release();
+            if (response.getSummary() != null)
+                peerSummaries.put(server, response.getSummary());
+            if (!response.isSuccess()) {
+                LOGGER.fine(String.format("failed to exchange with %s: %s", server, response));
+                return true;
+            }
+            LOGGER.fine(String.format("exchange send successfully to %s, %d server(s)%s",
+                    server, changes.servers.size(), changes.full ? "" : " changed"));
+            replicaGroups.learn(server, response.getEpoch());
+            synchronized (membership) {
+                return membership.acknowledge(server, changes, response.getEpoch());
+            }
+        }
+    }
+
+    /**
+     * @param callback accept servers added to and removed from the list,
+     * only changes rather than the whole list.
+     */
+    void setServerListChangedCallback(BiConsumer<Set<Server>, Set<Server>> callback) {
+        serverListChangedCallback = callback;
+    }
+
+    /**
+     * Forget a server removed from the list.
+     */
+    private void forgetServer(Server server) {
+        if (serverListChangedCallback != null)
+            serverListChangedCallback.accept(Collections.emptySet(), Collections.singleton(server));
+        peerStats.remove(server);
+        replicaGroups.remove(server);
+        peerSummaries.remove(server);
     }
 
-    void setServerListUpdatedCallback(Consumer<Set<Server>> callback) {
-        serverListUpdatedCallback = callback;
+    /**
+     * Probe a server on behalf of other server (indirect probe).
+     * @return true if the server responded in time, or at least accepted
+     * the connection, see {@link FailureDetector}.
+     */
+    boolean probe(Server server) {
+        return failureDetector.probe(server) != FailureDetector.ProbeResult.NO_RESPONSE;
+    }
+
+    /**
+     * @return epoch of the server list, see {@link Membership}.
+     */
+    String getEpoch() {
+        return epoch;
     }
 
     /**
@@ -128,66 +220,311 @@ public class InterServerService implements Runnable {
     void addServers(Collection<Server> servers) {
         Set<Server> serverSet = new HashSet<>(servers);
         serverSet.remove(localServer);
-        synchronized (this.servers) {
-            if (this.servers.addAll(serverSet)) {
-                LOGGER.info("server list updated");
-                if (serverListUpdatedCallback != null)
-                    serverListUpdatedCallback.accept(new HashSet<>(this.servers));
+        Set<Server> replaced = new HashSet<>();
+        synchronized (membership) {
+            Set<Server> added = membership.add(serverSet, replaced);
+            if (!added.isEmpty()) {
+                LOGGER.info(String.format("server list updated, %d added, %d replaced",
+                        added.size(), replaced.size()));
+                // Under the lock, so that callback see changes in order.
+                if (serverListChangedCallback != null)
+                    serverListChangedCallback.accept(added, replaced);
             } else {
                 LOGGER.fine("server list kept no changed");
             }
         }
+        replaced.forEach(server -> {
+            failureDetector.forget(server);
+            peerStats.remove(server);
+            replicaGroups.remove(server);
+            peerSummaries.remove(server);
+        });
     }
 
     /**
-     * Send query to all servers in internal server list.
-     * When finish, the thread that invoke this method will be interrupted.
+     * Send query to all servers in internal server list, in parallel.
+     * Resources are passed to consumer as they arrive, one at a time.
+     *
+     * Servers known as replicas of each other ({@link ReplicaGroups}) are
+     * queried once as a group: the fastest one first, the next one if it
+     * fails, or if it is slower than its usual p95 latency (hedging). Both
+     * may answer then, so caller should expect duplicated resources.
      *
-     * Multi-threading is taken to make query in parallel.
+     * Return when all groups answered or the deadline is reached. Servers
+     * that are still sending by then are dropped, nothing from them is
+     * passed to consumer after return. Each server is also given its own
+     * timeout on its first response, based on its past latency.
      *
      * @param query to send.
+     * @param timeoutMillis to wait for all servers at most.
      * @param consumer accept query result.
+     * @return left: number of groups answered in time, right: number of
+     * groups queried.
      */
-    void queryAll(Query query, Consumer<Resource> consumer) {
-        CountDownLatch countDownLatch;
-        synchronized (servers) {
-            countDownLatch = new CountDownLatch(servers.size());
-            // Following code run in thread pool.
-            servers.forEach(server -> executorService.submit(() -> {
-                try {
-                    query(query, server, consumer);
-                } catch (IOException e) {
-                    LOGGER.fine(String.format("fail to query with %s: %s\n",
-                            server, e.getMessage()));
-                    // TODO: should we remove that server?
-                } finally {
-                    countDownLatch.countDown();
-                }
-            }));
-            // End of thread pool code.
+    Pair<Integer, Integer> queryAll(Query query, int timeoutMillis,
+                                    Consumer<Resource> consumer) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        List<Server> targets;
+        synchronized (membership) {
+            targets = new ArrayList<>(membership.getServers());
+        }
+        ContentSummary.Probe probe = ContentSummary.probe(query.getResourceTemplate());
+        int total = targets.size();
+        targets.removeIf(server -> !peerSummaries.mayMatch(server, probe));
+        if (targets.size() < total)
+            LOGGER.fine(String.format("%d of %d servers skipped by their summaries",
+                    total - targets.size(), total));
+        // Query fast ones first, they will get threads first if the pool
+        // is busy.
+        List<List<Server>> groups = replicaGroups.group(targets, peerStats::getAverageLatency);
+        // Guard consumer, answered & expired.
+        Object lock = new Object();
+        AtomicInteger answered = new AtomicInteger();
+        AtomicBoolean expired = new AtomicBoolean();
+        Consumer<Resource> guardedConsumer = resource -> {
+            synchronized (lock) {
+                if (expired.get())
+                    throw new UncheckedIOException(new IOException("deadline exceeded"));
+                consumer.accept(resource);
+            }
+        };
+        CountDownLatch countDownLatch = new CountDownLatch(groups.size());
+        List<ReplicaQuery> started = new ArrayList<>(groups.size());
+        for (List<Server> group : groups) {
+            ReplicaQuery replicaQuery = new ReplicaQuery(query, group, deadline, guardedConsumer,
+                    () -> {
+                        synchronized (lock) {
+                            if (!expired.get())
+                                answered.incrementAndGet();
+                        }
+                    }, expired, countDownLatch);
+            // Whole group skipped if all of them are failing.
+            if (replicaQuery.start())
+                started.add(replicaQuery);
+            else
+                countDownLatch.countDown();
         }
 
         try {
-            countDownLatch.await();
+            if (!countDownLatch.await(deadline - System.currentTimeMillis(),
+                    TimeUnit.MILLISECONDS))
+                LOGGER.fine("deadline reached on relayed query");
         } catch (InterruptedException e) {
             LOGGER.fine("interrupted on countDownLatch");
         }
+        synchronized (lock) {
+            expired.set(true);
+        }
+        // Unblock stragglers.
+        started.forEach(ReplicaQuery::cancel);
+        return Pair.of(answered.get(), started.size());
     }
 
-    private void query(Query query, Server server,
-                       Consumer<Resource> consumer)
-            throws IOException {
-        EZInputOutput io = new EZInputOutput(server, secure, MAX_SOCKET_TIMEOUT);
-        io.sendJSON(query);
-        Response response = io.readResponse();
-        if (!response.isSuccess()) {
-            LOGGER.fine(String.format("query %s failed: %s", server, response));
-            return;
-        }
-        io.readResources(consumer);
+    /**
+     * Query on a group of replicas, done once one of them answered, or all
+     * of them failed.
+     */
+    private class ReplicaQuery {
+        private final Query query;
+        private final Iterator<Server> replicas;
+        private final long deadline;
+        private final Consumer<Resource> consumer;
+        private final Runnable onAnswered;
+        private final AtomicBoolean expired;
+        private final CountDownLatch countDownLatch;
+        private final Set<EZInputOutput> inFlight = ConcurrentHashMap.newKeySet();
+        // Guarded by this.
+        private int running;
+        private boolean responded;
+        private boolean done;
+
+        ReplicaQuery(Query query, List<Server> replicas, long deadline,
+                     Consumer<Resource> consumer, Runnable onAnswered,
+                     AtomicBoolean expired, CountDownLatch countDownLatch) {
+            this.query = query;
+            this.replicas = replicas.iterator();
+            this.deadline = deadline;
+            this.consumer = consumer;
+            this.onAnswered = onAnswered;
+            this.expired = expired;
+            this.countDownLatch = countDownLatch;
+        }
+
+        /**
+         * @return false if no replica to query, all are skipped by their
+         * circuit breakers.
+         */
+        synchronized boolean start() {
+            Server server = nextReplica();
+            if (server == null)
+                return false;
+            launch(server);
+            return true;
+        }
+
+        synchronized void cancel() {
+            done = true;
+            inFlight.forEach(EZInputOutput::close);
+        }
+
+        private Server nextReplica() {
+            while (replicas.hasNext()) {
+                Server server = replicas.next();
+                if (peerStats.tryAcquire(server))
+                    return server;
+            }
+            return null;
+        }
+
+        private void launch(Server server) {
+            running++;
+            executorService.submit(() -> run(server));
+            long p95 = peerStats.getLatencyPercentile(server, 95);
+            if (p95 >= 0 && replicas.hasNext()
+                    && System.currentTimeMillis() + p95 < deadline)
+                hedgeTimer.schedule(() -> hedge(server), p95, TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void hedge(Server slow) {
+            if (done || responded)
+                return;
+            Server server = nextReplica();
+            if (server == null)
+                return;
+            LOGGER.fine(String.format("%s is slow, hedge query to %s", slow, server));
+            launch(server);
+        }
+
+        private void run(Server server) {
+            boolean success = false;
+            try {
+                success = query(server);
+            } catch (IOException e) {
+                LOGGER.fine(String.format("fail to query with %s: %s",
+                        server, e.getMessage()));
+                // Dropped by deadline or by other replica is not its fault,
+                // timeout on its first response is recorded in query().
+                // Neither is rejecting HELLO, it's queried without next time.
+                if (!isDone() && !expired.get() && !(e instanceof SocketTimeoutException)
+                        && !(e instanceof HelloRejectedException))
+                    peerStats.recordFailure(server);
+            } catch (UncheckedIOException e) {
+                LOGGER.fine(String.format("stop query with %s: %s",
+                        server, e.getMessage()));
+            } finally {
+                finish(success);
+            }
+        }
+
+        private synchronized boolean isDone() {
+            return done;
+        }
+
+        private void finish(boolean success) {
+            synchronized (this) {
+                running--;
+                if (done)
+                    return;
+                if (!success && !expired.get()) {
+                    // Fail over.
+                    Server server = nextReplica();
+                    if (server != null)
+                        launch(server);
+                }
+                if (!success && running > 0)
+                    return;
+                done = true;
+                // Stop other replicas, one answer is enough.
+                inFlight.forEach(EZInputOutput::close);
+            }
+            if (success)
+                onAnswered.run();
+            countDownLatch.countDown();
+        }
+
+        /**
+         * @return true if server answered successfully.
+         */
+        private boolean query(Server server) throws IOException {
+            int remaining = (int) (deadline - System.currentTimeMillis());
+            if (remaining <= 0)
+                return false;
+            int timeout = peerStats.getTimeout(server, remaining);
+            long start = System.currentTimeMillis();
+            ConnectionPool.Lease lease;
+            try {
+                lease = connectionPool.send(server, features ->
+                        features.contains(Features.SUMMARY) && peerSummaries.needsRefresh(server) ?
+                                new Query(query.getResourceTemplate(), query.isRelay(),
+                                        query.getTimeout(), true) :
+                                query, timeout);
+            } catch (SocketTimeoutException e) {
+                peerStats.recordTimeout(server, timeout);
+                peerStats.recordFailure(server);
+                throw e;
+            }
+            peerStats.recordLatency(server, System.currentTimeMillis() - start);
+            failureDetector.alive(server);
+            try {
+                Response response = lease.getResponse();
+                if (!response.isSuccess()) {
+                    LOGGER.fine(String.format("query %s failed: %s", server, response));
+                    lease.release();
+                    return false;
+                }
+                EZInputOutput io = lease.getIO();
+                remaining = (int) (deadline - System.currentTimeMillis());
+                if (remaining <= 0)
+                    return false;
+                io.setTimeout(remaining);
+                synchronized (this) {
+                    if (done)
+                        return false;
+                    responded = true;
+                    inFlight.add(io);
+                }
+                ResultSize result;
+                try {
+                    result = io.readResult(consumer);
+                } finally {
+                    inFlight.remove(io);
+                }
+                if (result.getSummary() != null)
+                    peerSummaries.put(server, result.getSummary());
+                lease.release();
+                return true;
+            } finally {
+                lease.close();
+            }
+        }
     }
 
     void stop() {
         isRunning = false;
+        failureDetector.stop();
+        connectionPool.close();
+        hedgeTimer.shutdownNow();
+        unregisterMBean();
+    }
+
+    private ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName("EZShare:type=PeerStats,port=" + localServer.getPort());
+    }
+
+    private void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(peerStats, PeerStatsMXBean.class, true), getObjectName());
+        } catch (JMException e) {
+            LOGGER.warning("failed to register peer stats to JMX: " + e);
+        }
+    }
+
+    private void unregisterMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(getObjectName());
+        } catch (JMException e) {
+            LOGGER.fine("failed to unregister peer stats from JMX: " + e);
+        }
     }
 }
@@ -0,0 +1,178 @@
+package EZShare.server;
+
+import EZShare.entities.Resource;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * One put or remove in the journal, or one resource in a snapshot.
+ *
+ * Binary format of a record:
+ *   int length, int CRC32 of payload, payload (length bytes).
+ * Payload starts with a byte of operation, followed by the channel and URI
+ * of its key. A put also has all fields of the resource.
+ *
+ * Created on 2026/10/18.
+ */
+class JournalRecord {
+    // Far beyond any resource, never written, so a larger length read is
+    // garbage.
+    private final static int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    enum Op { END, PUT, REMOVE }
+
+    final Op op;
+    final String channel;
+    final URI uri;
+    final Resource resource;
+
+    private JournalRecord(Op op, String channel, URI uri, Resource resource) {
+        this.op = op;
+        this.channel = channel;
+        this.uri = uri;
+        this.resource = resource;
+    }
+
+    static JournalRecord put(String channel, URI uri, Resource resource) {
+        return new JournalRecord(Op.PUT, channel, uri, resource);
+    }
+
+    static JournalRecord remove(String channel, URI uri) {
+        return new JournalRecord(Op.REMOVE, channel, uri, null);
+    }
+
+    /**
+     * The last record of a snapshot, marks the snapshot is completely written.
+     */
+    static JournalRecord end() {
+        return new JournalRecord(Op.END, "", null, null);
+    }
+
+    /**
+     * Encode this record with its length & checksum.
+     * @return bytes ready to append to a file.
+     * @throws UncheckedIOException if larger than a record may be.
+     */
+    byte[] encode() {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(256);
+        try (DataOutputStream output = new DataOutputStream(payload)) {
+            output.writeByte(op.ordinal());
+            writeString(output, channel);
+            writeString(output, uri == null ? "" : uri.toString());
+            if (op == Op.PUT) {
+                writeString(output, resource.getName());
+                writeString(output, resource.getDescription());
+                writeString(output, resource.getUri());
+                writeString(output, resource.getChannel());
+                writeString(output, resource.getOwner());
+                output.writeBoolean(resource.getEzserver() != null);
+                if (resource.getEzserver() != null)
+                    writeString(output, resource.getEzserver());
+                List<String> tags = resource.getTags();
+                output.writeInt(tags.size());
+                for (String tag : tags)
+                    writeString(output, tag);
+            }
+        } catch (IOException e) {
+            // Never happen on ByteArrayOutputStream.
+            throw new UncheckedIOException(e);
+        }
+        byte[] bytes = payload.toByteArray();
+        if (bytes.length > MAX_RECORD_SIZE)
+            throw new UncheckedIOException(new IOException("record too large: " + bytes.length));
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(bytes.length + 8);
+        try (DataOutputStream output = new DataOutputStream(record)) {
+            output.writeInt(bytes.length);
+            output.writeInt((int) crc.getValue());
+            output.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return record.toByteArray();
+    }
+
+    /**
+     * Read a record.
+     * @param input to read from, a file, so that available() is the bytes
+     *              left in it.
+     * @return the record, or null on EOF.
+     * @throws IOException if the record is truncated or corrupted, or error on read.
+     */
+    static JournalRecord read(DataInputStream input) throws IOException {
+        int length;
+        try {
+            length = input.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        int checksum = input.readInt();
+        // Don't allocate for a garbage length in a torn tail.
+        if (length < 0 || length > MAX_RECORD_SIZE || length > input.available())
+            throw new IOException("malformed record length " + length);
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        if ((int) crc.getValue() != checksum)
+            throw new IOException("record checksum mismatch");
+
+        DataInputStream payload = new DataInputStream(new ByteArrayInputStream(bytes));
+        int opIndex = payload.readUnsignedByte();
+        if (opIndex >= Op.values().length)
+            throw new IOException("unknown record type " + opIndex);
+        Op op = Op.values()[opIndex];
+        String channel = readString(payload);
+        String uriString = readString(payload);
+        if (op == Op.END)
+            return end();
+        URI uri;
+        try {
+            uri = new URI(uriString);
+        } catch (URISyntaxException e) {
+            throw new IOException("malformed URI in record", e);
+        }
+        if (op == Op.REMOVE)
+            return remove(channel, uri);
+
+        Resource resource = new Resource();
+        resource.setName(readString(payload));
+        resource.setDescription(readString(payload));
+        resource.setUri(readString(payload));
+        resource.setChannel(readString(payload));
+        resource.setOwner(readString(payload));
+        if (payload.readBoolean())
+            resource.setEzserver(readString(payload));
+        int tagCount = payload.readInt();
+        List<String> tags = new ArrayList<>(tagCount);
+        for (int i = 0; i < tagCount; i++)
+            tags.add(readString(payload));
+        resource.setTags(tags);
+        return put(channel, uri, resource);
+    }
+
+    /**
+     * Unlike {@link DataOutputStream#writeUTF(String)}, no 64 KiB limit.
+     */
+    private static void writeString(DataOutputStream output, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > input.available())
+            throw new IOException("malformed string length " + length);
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
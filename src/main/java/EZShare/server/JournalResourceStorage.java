@@ -0,0 +1,467 @@
+package EZShare.server;
+
+import EZShare.entities.Resource;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Persist resources of another (in-memory) storage on disk.
+ *
+ * Every put & remove is appended to a write-ahead journal, and applied to
+ * the in-memory storage only after the journal is synced to disk, so that
+ * a failed write is never visible. Concurrent writes are committed in
+ * group by one writer thread, so one fsync covers many of them.
+ *
+ * The journal is split into numbered segments. In background, full
+ * segments are compacted into a snapshot with the previous snapshot, then
+ * removed. On start, the newest snapshot is loaded and later segments are
+ * replayed.
+ *
+ * Directory layout:
+ *   snapshot-N: all resources after applying journal-0 to journal-N.
+ *   journal-N: records appended after journal-(N-1).
+ *
+ * Created on 2026/10/18.
+ */
+public class JournalResourceStorage implements ResourceStorage, Closeable {
+    private final static Logger LOGGER = Logger.getLogger(JournalResourceStorage.class.getName());
+    private final static Pattern FILE_PATTERN = Pattern.compile("(snapshot|journal)-(\\d+)");
+    private final static int LOCK_STRIPES = 64;
+    private final static int IO_BUFFER_SIZE = 1024 * 1024;
+    private final static long COMPACT_CHECK_INTERVAL_SECONDS = 60;
+    private final static long COMPACT_JOURNAL_BYTES = 64 * 1024 * 1024;
+
+    private final File directory;
+    private final ResourceStorage resources;
+    // Keep order of records & changes applied on the same key.
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final BlockingQueue<PendingRecord> pendingRecords = new LinkedBlockingQueue<>();
+    // Records are queued only while writable, so that none is left behind
+    // once the writer stops.
+    private final Object appendLock = new Object();
+    private final Thread writerThread;
+    private final ScheduledExecutorService compactService =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "journal-compact");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private volatile FileChannel journal;
+    private volatile long journalNumber;
+    private volatile boolean rotateRequested;
+    private volatile IOException writerFailure;
+    private volatile boolean isRunning = true;
+
+    /**
+     * Open a journaled storage, load resources on disk into the storage.
+     * @param directory where snapshots & journals stored, created if not exists.
+     * @param resources an empty storage to keep resources in memory.
+     * @throws IOException if fail to read or create files.
+     */
+    public JournalResourceStorage(File directory, ResourceStorage resources) throws IOException {
+        this.directory = directory;
+        this.resources = resources;
+        for (int i = 0; i < locks.length; i++)
+            locks[i] = new Object();
+        Files.createDirectories(directory.toPath());
+        journalNumber = recover() + 1;
+        journal = openJournal(journalNumber);
+
+        writerThread = new Thread(this::writeForever, "journal-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        compactService.scheduleWithFixedDelay(this::compactIfNeeded,
+                COMPACT_CHECK_INTERVAL_SECONDS, COMPACT_CHECK_INTERVAL_SECONDS,
+                TimeUnit.SECONDS);
+    }
+
+    private File getFile(String type, long number) {
+        return new File(directory, type + "-" + number);
+    }
+
+    /**
+     * List numbers of files in the directory.
+     * @param type either "snapshot" or "journal".
+     * @return sorted numbers.
+     */
+    private List<Long> listNumbers(String type) {
+        List<Long> numbers = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null)
+            return numbers;
+        for (String name : names) {
+            Matcher matcher = FILE_PATTERN.matcher(name);
+            if (matcher.matches() && matcher.group(1).equals(type))
+                numbers.add(Long.parseLong(matcher.group(2)));
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private static DataInputStream openForRead(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), IO_BUFFER_SIZE));
+    }
+
+    /**
+     * Load the newest complete snapshot and replay later journals.
+     * @return number of the last journal on disk, or of the snapshot if no
+     * journal after it.
+     */
+    private long recover() throws IOException {
+        long snapshotNumber = -1;
+        List<Long> snapshots = listNumbers("snapshot");
+        Collections.reverse(snapshots);
+        for (long number : snapshots) {
+            Map<Pair<String, URI>, Resource> loaded = new HashMap<>();
+            try {
+                readSnapshot(getFile("snapshot", number), loaded);
+            } catch (IOException e) {
+                LOGGER.warning(String.format("snapshot-%d is broken, skipped: %s", number, e));
+                continue;
+            }
+            loaded.forEach((key, res) -> resources.put(key.getLeft(), key.getRight(), res));
+            snapshotNumber = number;
+            LOGGER.info(String.format("%d resource(s) loaded from snapshot-%d",
+                    loaded.size(), number));
+            break;
+        }
+
+        long lastNumber = snapshotNumber;
+        for (long number : listNumbers("journal")) {
+            if (number <= snapshotNumber)
+                continue;
+            int count = replayJournal(getFile("journal", number), record -> {
+                if (record.op == JournalRecord.Op.PUT)
+                    resources.put(record.channel, record.uri, record.resource);
+                else
+                    resources.remove(record.channel, record.uri);
+            });
+            LOGGER.info(String.format("%d record(s) replayed from journal-%d", count, number));
+            lastNumber = number;
+        }
+        return lastNumber;
+    }
+
+    /**
+     * Read all resources in a snapshot.
+     * @throws IOException if error on read, or the snapshot is incomplete.
+     */
+    private static void readSnapshot(File file, Map<Pair<String, URI>, Resource> resources)
+            throws IOException {
+        try (DataInputStream input = openForRead(file)) {
+            JournalRecord record;
+            while ((record = JournalRecord.read(input)) != null) {
+                if (record.op == JournalRecord.Op.END)
+                    return;
+                resources.put(Pair.of(record.channel, record.uri), record.resource);
+            }
+        }
+        throw new EOFException("snapshot is incomplete");
+    }
+
+    private interface RecordConsumer {
+        void accept(JournalRecord record);
+    }
+
+    /**
+     * Read records in a journal, stop on the first broken record.
+     * Only the tail of a journal may be broken, due to crash on writing.
+     * @return the number of records read.
+     */
+    private static int replayJournal(File file, RecordConsumer consumer) throws IOException {
+        int count = 0;
+        try (DataInputStream input = openForRead(file)) {
+            JournalRecord record;
+            while ((record = JournalRecord.read(input)) != null) {
+                consumer.accept(record);
+                count++;
+            }
+        } catch (IOException e) {
+            LOGGER.warning(String.format("%s: stop on broken record #%d: %s",
+                    file.getName(), count, e));
+        }
+        return count;
+    }
+
+    private FileChannel openJournal(long number) throws IOException {
+        return FileChannel.open(getFile("journal", number).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Group commit: take all pending records, write and sync them at once.
+     * Only run on writer thread.
+     */
+    private void writeForever() {
+        List<PendingRecord> batch = new ArrayList<>();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(IO_BUFFER_SIZE);
+        while (isRunning || !pendingRecords.isEmpty()) {
+            try {
+                PendingRecord first = pendingRecords.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    rotateIfRequested();
+                    continue;
+                }
+                batch.add(first);
+                pendingRecords.drainTo(batch);
+                for (PendingRecord pending : batch) {
+                    if (pending.bytes.length > buffer.remaining())
+                        flush(buffer);
+                    if (pending.bytes.length > buffer.capacity())
+                        write(ByteBuffer.wrap(pending.bytes));
+                    else
+                        buffer.put(pending.bytes);
+                }
+                flush(buffer);
+                journal.force(false);
+                batch.forEach(p -> p.committed.complete(null));
+                rotateIfRequested();
+            } catch (InterruptedException e) {
+                LOGGER.info("journal writer interrupted");
+                synchronized (appendLock) {
+                    isRunning = false;
+                }
+            } catch (IOException e) {
+                LOGGER.severe("fail to write journal, stop writing: " + e);
+                synchronized (appendLock) {
+                    writerFailure = e;
+                }
+                batch.forEach(p -> p.committed.completeExceptionally(e));
+                failPending(e);
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Fail records that will never be written. Only after no more can be
+     * appended.
+     */
+    private void failPending(IOException e) {
+        PendingRecord pending;
+        while ((pending = pendingRecords.poll()) != null)
+            pending.committed.completeExceptionally(e);
+    }
+
+    private void flush(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            journal.write(buffer);
+    }
+
+    /**
+     * Start a new journal. Only run on writer thread, after a batch committed.
+     */
+    private void rotateIfRequested() throws IOException {
+        if (!rotateRequested)
+            return;
+        rotateRequested = false;
+        FileChannel newJournal = openJournal(journalNumber + 1);
+        journal.close();
+        journal = newJournal;
+        journalNumber++;
+        LOGGER.fine("start new journal-" + journalNumber);
+    }
+
+    /**
+     * Rotate the journal if it's large enough, then merge all closed
+     * journals into a new snapshot. Only run on compact thread.
+     */
+    private void compactIfNeeded() {
+        try {
+            if (journal.size() >= COMPACT_JOURNAL_BYTES)
+                rotateRequested = true;
+            List<Long> journals = listNumbers("journal");
+            journals.removeIf(n -> n >= journalNumber);
+            if (!journals.isEmpty())
+                compact(journals.get(journals.size() - 1));
+        } catch (IOException e) {
+            LOGGER.warning("fail to compact journal: " + e);
+        }
+    }
+
+    /**
+     * Write snapshot-N from the newest snapshot and journals up to N,
+     * then delete them.
+     * @param upToNumber N, the number of the last closed journal.
+     */
+    private void compact(long upToNumber) throws IOException {
+        Map<Pair<String, URI>, Resource> merged = new LinkedHashMap<>();
+        long baseNumber = -1;
+        List<Long> snapshots = listNumbers("snapshot");
+        if (!snapshots.isEmpty()) {
+            baseNumber = snapshots.get(snapshots.size() - 1);
+            readSnapshot(getFile("snapshot", baseNumber), merged);
+        }
+        for (long number : listNumbers("journal")) {
+            if (number <= baseNumber || number > upToNumber)
+                continue;
+            replayJournal(getFile("journal", number), record -> {
+                Pair<String, URI> key = Pair.of(record.channel, record.uri);
+                if (record.op == JournalRecord.Op.PUT)
+                    merged.put(key, record.resource);
+                else
+                    merged.remove(key);
+            });
+        }
+
+        File tempFile = new File(directory, "snapshot.tmp");
+        try (FileOutputStream file = new FileOutputStream(tempFile);
+             BufferedOutputStream output = new BufferedOutputStream(file, IO_BUFFER_SIZE)) {
+            for (Map.Entry<Pair<String, URI>, Resource> entry : merged.entrySet())
+                output.write(JournalRecord.put(entry.getKey().getLeft(),
+                        entry.getKey().getRight(), entry.getValue()).encode());
+            output.write(JournalRecord.end().encode());
+            output.flush();
+            file.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), getFile("snapshot", upToNumber).toPath(),
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        LOGGER.info(String.format("%d resource(s) compacted into snapshot-%d",
+                merged.size(), upToNumber));
+
+        for (long number : listNumbers("journal"))
+            if (number <= upToNumber)
+                Files.deleteIfExists(getFile("journal", number).toPath());
+        for (long number : listNumbers("snapshot"))
+            if (number < upToNumber)
+                Files.deleteIfExists(getFile("snapshot", number).toPath());
+    }
+
+    private Object getLock(String channel, URI uri) {
+        return locks[(Objects.hash(channel, uri) & Integer.MAX_VALUE) % locks.length];
+    }
+
+    /**
+     * Queue a record to write. Must be called while holding the key's lock.
+     */
+    private CompletableFuture<Void> append(JournalRecord record) {
+        PendingRecord pending = new PendingRecord(record.encode());
+        synchronized (appendLock) {
+            if (writerFailure != null)
+                throw new UncheckedIOException("journal is not writable", writerFailure);
+            if (!isRunning)
+                throw new IllegalStateException("journal is closed");
+            pendingRecords.add(pending);
+        }
+        return pending.committed;
+    }
+
+    /**
+     * Block until the record is synced to disk.
+     * @throws UncheckedIOException if fail to write the journal.
+     */
+    private static void awaitCommitted(CompletableFuture<Void> committed) {
+        try {
+            committed.get();
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException("fail to write journal",
+                    e.getCause() instanceof IOException
+                            ? (IOException) e.getCause() : new IOException(e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new InterruptedIOException("interrupted on commit"));
+        }
+    }
+
+    @Override
+    public void put(String channel, URI uri, Resource resource) {
+        synchronized (getLock(channel, uri)) {
+            awaitCommitted(append(JournalRecord.put(channel, uri, resource)));
+            resources.put(channel, uri, resource);
+        }
+    }
+
+    @Override
+    public Resource get(String channel, URI uri) {
+        return resources.get(channel, uri);
+    }
+
+    @Override
+    public void remove(String channel, URI uri) {
+        synchronized (getLock(channel, uri)) {
+            awaitCommitted(append(JournalRecord.remove(channel, uri)));
+            resources.remove(channel, uri);
+        }
+    }
+
+    @Override
+    public boolean updateResource(Resource resource) {
+        URI uri = resource.getNormalizedUri();
+        synchronized (getLock(resource.getChannel(), uri)) {
+            Resource oldResource = resources.get(resource.getChannel(), uri);
+            if (oldResource != null && !oldResource.getOwner().equals(resource.getOwner()))
+                return false;
+            awaitCommitted(append(JournalRecord.put(resource.getChannel(), uri, resource)));
+            resources.put(resource.getChannel(), uri, resource);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean removeResource(Resource resource) {
+        URI uri = resource.getNormalizedUri();
+        synchronized (getLock(resource.getChannel(), uri)) {
+            Resource oldResource = resources.get(resource.getChannel(), uri);
+            if (oldResource == null || !oldResource.getOwner().equals(resource.getOwner()))
+                return false;
+            awaitCommitted(append(JournalRecord.remove(resource.getChannel(), uri)));
+            resources.remove(resource.getChannel(), uri);
+        }
+        return true;
+    }
+
+    @Override
+    public Stream<Resource> templateQuery(Resource template) {
+        return resources.templateQuery(template);
+    }
+
+    /**
+     * Commit pending records, then stop the writer & compactor.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            isRunning = false;
+        }
+        compactService.shutdownNow();
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Left if the writer stopped early, or we gave up waiting for it.
+        failPending(new IOException("journal is closed"));
+        journal.close();
+    }
+
+    private static class PendingRecord {
+        final byte[] bytes;
+        final CompletableFuture<Void> committed = new CompletableFuture<>();
+
+        PendingRecord(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
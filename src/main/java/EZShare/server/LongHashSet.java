@@ -0,0 +1,81 @@
+package EZShare.server;
+
+/**
+ * Set of primitive longs, open addressing with linear probing. No boxing,
+ * 8 bytes per slot, for short-lived sets such as fingerprints of resources
+ * already sent in one query.
+ *
+ * Not thread-safe.
+ *
+ * Created on 2026/10/18.
+ */
+final class LongHashSet {
+    private final static int INITIAL_CAPACITY = 64;  // power of 2
+    private final static long EMPTY = 0;
+
+    private long[] slots = new long[INITIAL_CAPACITY];
+    private int size;
+    // EMPTY marks free slots, so itself is stored aside.
+    private boolean hasEmptyValue;
+
+    /**
+     * @return true if the value was not in the set.
+     */
+    boolean add(long value) {
+        if (value == EMPTY) {
+            if (hasEmptyValue)
+                return false;
+            hasEmptyValue = true;
+            return true;
+        }
+        // Keep load factor below 1/2.
+        if ((size + 1) * 2 > slots.length)
+            rehash(slots.length * 2);
+        if (!insert(slots, value))
+            return false;
+        size++;
+        return true;
+    }
+
+    boolean contains(long value) {
+        if (value == EMPTY)
+            return hasEmptyValue;
+        int mask = slots.length - 1;
+        for (int i = mix(value) & mask; slots[i] != EMPTY; i = (i + 1) & mask)
+            if (slots[i] == value)
+                return true;
+        return false;
+    }
+
+    int size() {
+        return size + (hasEmptyValue ? 1 : 0);
+    }
+
+    private static boolean insert(long[] slots, long value) {
+        int mask = slots.length - 1;
+        int i = mix(value) & mask;
+        while (slots[i] != EMPTY) {
+            if (slots[i] == value)
+                return false;
+            i = (i + 1) & mask;
+        }
+        slots[i] = value;
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        long[] newSlots = new long[capacity];
+        for (long value : slots)
+            if (value != EMPTY)
+                insert(newSlots, value);
+        slots = newSlots;
+    }
+
+    /**
+     * Spread bits, so that values differ only in high bits don't collide.
+     */
+    private static int mix(long value) {
+        value *= 0x9E3779B97F4A7C15L;
+        return (int) (value ^ (value >>> 32));
+    }
+}
@@ -0,0 +1,247 @@
+package EZShare.server;
+
+import EZShare.entities.Server;
+
+import java.util.*;
+
+/**
+ * Versioned list of other servers, for EXCHANGE with only changes.
+ *
+ * Each entry has the version of the list when it was added, and the list
+ * remembers the version sent to each server last time, so that only
+ * entries newer than that are sent next time.
+ *
+ * Servers answer EXCHANGE with the epoch of their list, which changes on
+ * restart. The whole list is sent when the epoch is unknown or changed,
+ * and also once in a while, since servers also drop entries on their own.
+ * Servers that don't tell their epoch always get the whole list.
+ *
+ * Removal is not sent to others, it's only a local decision, same as
+ * before.
+ *
+ * The list is a partial view of the mesh, bounded by
+ * {@link #MAX_VIEW_SIZE}, so that work of probing, exchanging and relaying
+ * stays the same however large the mesh is. Once full, new servers
+ * replace random ones, suspected ones first, a few on each change, so
+ * that the view keeps mixing without being flushed by one EXCHANGE.
+ *
+ * Not thread-safe.
+ *
+ * Created on 2026/10/18.
+ */
+class Membership {
+    private final static long FULL_SYNC_INTERVAL_MILLIS = 60 * 60 * 1000;  // 1 hour
+    final static int MAX_VIEW_SIZE = 64;
+    private final static int MAX_REPLACED_PER_ADD = MAX_VIEW_SIZE / 8;
+
+    // Server -> version when added.
+    private final Map<Server, Long> entries = new HashMap<>();
+    private final Map<Server, PeerState> peers = new HashMap<>();
+    // Server -> since when.
+    private final Map<Server, Long> suspects = new HashMap<>();
+    // Order of probing, see nextProbeTarget().
+    private final Deque<Server> probeOrder = new ArrayDeque<>();
+    private final Random random = new Random();
+    private long version;
+
+    private static class PeerState {
+        String epoch;
+        long sentVersion;
+        long fullSyncAt;
+    }
+
+    /**
+     * Entries to send in one EXCHANGE.
+     */
+    static class Changes {
+        final List<Server> servers;
+        final long version;
+        final boolean full;
+
+        private Changes(List<Server> servers, long version, boolean full) {
+            this.servers = servers;
+            this.version = version;
+            this.full = full;
+        }
+    }
+
+    /**
+     * @param servers to add.
+     * @param replaced accept servers removed to make room for new ones.
+     * @return servers that are new to the list.
+     */
+    Set<Server> add(Collection<Server> servers, Collection<Server> replaced) {
+        List<Server> candidates = new ArrayList<>();
+        for (Server server : servers)
+            if (!entries.containsKey(server))
+                candidates.add(server);
+        Collections.shuffle(candidates, random);
+        Set<Server> added = new HashSet<>();
+        int replacements = 0;
+        for (Server server : candidates) {
+            if (entries.size() >= MAX_VIEW_SIZE) {
+                Server victim = pickVictim(added);
+                if (victim == null || replacements++ >= MAX_REPLACED_PER_ADD)
+                    break;
+                remove(victim);
+                replaced.add(victim);
+            }
+            entries.put(server, ++version);
+            added.add(server);
+        }
+        return added;
+    }
+
+    /**
+     * @param excluded servers not to pick.
+     * @return a suspected server, or a random one if none, or null if all
+     * are excluded.
+     */
+    private Server pickVictim(Set<Server> excluded) {
+        for (Server server : suspects.keySet())
+            if (!excluded.contains(server))
+                return server;
+        List<Server> candidates = new ArrayList<>(entries.keySet());
+        candidates.removeAll(excluded);
+        return candidates.isEmpty() ? null : candidates.get(random.nextInt(candidates.size()));
+    }
+
+    /**
+     * @return true if the server was on the list.
+     */
+    boolean remove(Server server) {
+        peers.remove(server);
+        suspects.remove(server);
+        return entries.remove(server) != null;
+    }
+
+    boolean contains(Server server) {
+        return entries.containsKey(server);
+    }
+
+    /**
+     * Servers are probed in a random round-robin order, so that every
+     * server is probed once in a round, while who probes a server in
+     * which time is random.
+     * @return server to probe next, or null if the list is empty.
+     */
+    Server nextProbeTarget() {
+        while (true) {
+            if (probeOrder.isEmpty()) {
+                if (entries.isEmpty())
+                    return null;
+                List<Server> round = new ArrayList<>(entries.keySet());
+                Collections.shuffle(round, random);
+                probeOrder.addAll(round);
+            }
+            Server server = probeOrder.pollFirst();
+            if (entries.containsKey(server))
+                return server;
+        }
+    }
+
+    /**
+     * @param count at most.
+     * @param excluded server not to pick.
+     * @return random servers on the list.
+     */
+    List<Server> getRandomServers(int count, Server excluded) {
+        List<Server> servers = new ArrayList<>(entries.keySet());
+        servers.remove(excluded);
+        servers.removeAll(suspects.keySet());
+        Collections.shuffle(servers, random);
+        return new ArrayList<>(servers.subList(0, Math.min(count, servers.size())));
+    }
+
+    Set<Server> getSuspects() {
+        return new HashSet<>(suspects.keySet());
+    }
+
+    /**
+     * @return true if it wasn't suspected.
+     */
+    boolean suspect(Server server) {
+        if (!entries.containsKey(server) || suspects.containsKey(server))
+            return false;
+        suspects.put(server, System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * The server is known alive.
+     * @return true if it was suspected.
+     */
+    boolean refute(Server server) {
+        return suspects.remove(server) != null;
+    }
+
+    /**
+     * @param timeoutMillis of suspicion.
+     * @return servers suspected for longer than timeout, they are removed.
+     */
+    List<Server> removeExpiredSuspects(long timeoutMillis) {
+        long now = System.currentTimeMillis();
+        List<Server> expired = new ArrayList<>();
+        suspects.forEach((server, since) -> {
+            if (now - since > timeoutMillis)
+                expired.add(server);
+        });
+        expired.forEach(this::remove);
+        return expired;
+    }
+
+    boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    Set<Server> getServers() {
+        return new HashSet<>(entries.keySet());
+    }
+
+    /**
+     * @param peer to send to.
+     * @param forceFull send the whole list regardless.
+     * @return entries the peer may not know.
+     */
+    Changes getChangesFor(Server peer, boolean forceFull) {
+        PeerState state = peers.get(peer);
+        boolean full = forceFull || state == null || state.epoch == null
+                || System.currentTimeMillis() - state.fullSyncAt > FULL_SYNC_INTERVAL_MILLIS;
+        List<Server> servers = new ArrayList<>();
+        entries.forEach((server, addedAt) -> {
+            if (!server.equals(peer) && (full || addedAt > state.sentVersion))
+                servers.add(server);
+        });
+        return new Changes(servers, version, full);
+    }
+
+    /**
+     * The peer accepted the changes.
+     * @param epoch of list of the peer, or null if it didn't tell.
+     * @return false if the peer has restarted since last time, and
+     * missed entries sent before, the whole list should be sent now.
+     */
+    boolean acknowledge(Server peer, Changes changes, String epoch) {
+        PeerState state = peers.get(peer);
+        if (state == null) {
+            if (!entries.containsKey(peer))
+                // Removed meanwhile.
+                return true;
+            state = new PeerState();
+            peers.put(peer, state);
+        }
+        boolean missed = !changes.full && !Objects.equals(state.epoch, epoch);
+        state.epoch = epoch;
+        state.sentVersion = changes.version;
+        if (changes.full)
+            state.fullSyncAt = System.currentTimeMillis();
+        else if (missed)
+            // Until the whole list is sent successfully.
+            state.fullSyncAt = 0;
+        return !missed;
+    }
+}
@@ -1,6 +1,7 @@
 package EZShare.server;
 
 import EZShare.entities.Resource;
+import EZShare.entities.TemplateMatcher;
 import org.apache.commons.lang3.tuple.Pair;
 
 import java.net.URI;
@@ -17,24 +18,40 @@ public class MemoryResourceStorage implements ResourceStorage {
     private HashMap<Pair<String, URI>, Resource> resources = new HashMap<>();
 
     @Override
-    public void put(String channel, URI uri, Resource resource) {
+    public synchronized void put(String channel, URI uri, Resource resource) {
         resources.put(Pair.of(channel, uri), resource);
     }
 
     @Override
-    public Resource get(String channel, URI uri) {
+    public synchronized Resource get(String channel, URI uri) {
         return resources.get(Pair.of(channel, uri));
     }
 
     @Override
-    public void remove(String channel, URI uri) {
+    public synchronized void remove(String channel, URI uri) {
         resources.remove(Pair.of(channel, uri));
     }
 
     @Override
-    public Stream<Resource> templateQuery(Resource template) {
+    public synchronized boolean updateResource(Resource resource) {
+        return ResourceStorage.super.updateResource(resource);
+    }
+
+    @Override
+    public synchronized boolean removeResource(Resource resource) {
+        return ResourceStorage.super.removeResource(resource);
+    }
+
+    /**
+     * Matched resources are collected before return, so the returned
+     * stream is safe to consume without holding the lock.
+     */
+    @Override
+    public synchronized Stream<Resource> templateQuery(Resource template) {
+        TemplateMatcher matcher = TemplateMatcher.compile(template);
         return resources.values().stream()
-                .filter(res -> res.matchWithTemplate(template));
+                .filter(matcher::matches)
+                .collect(Collectors.toList()).stream();
     }
 
 }
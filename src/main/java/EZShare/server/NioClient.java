@@ -0,0 +1,405 @@
+package EZShare.server;
+
+import EZShare.entities.Command;
+import EZShare.entities.Hello;
+import EZShare.entities.Response;
+import EZShare.networking.FrameCodec;
+import EZShare.networking.Transport;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+/**
+ * Same as {@link Client}, but on a non-blocking channel served by an
+ * {@link EventLoop}.
+ *
+ * The event loop reads & decodes frames, then commands are handled on
+ * worker threads, one at a time and in order for each client. Responses
+ * are queued and written out by the event loop. Senders are blocked when
+ * too many bytes are queued, until the client catches up.
+ *
+ * Created on 2026/10/18.
+ */
+class NioClient implements ClientSession.Output {
+    private final static Logger LOGGER = Logger.getLogger(NioClient.class.getName());
+    private final static long FIRST_COMMAND_TIMEOUT_MILLIS = 30 * 1000;
+    // Enough for most commands, grown on larger frames, so that idle
+    // connections hold little memory.
+    private final static int INITIAL_READ_BUFFER_SIZE = 2 * 1024;
+    // Drop read buffers grown beyond this size once mostly empty.
+    private final static int READ_BUFFER_SHRINK_THRESHOLD = 64 * 1024;
+    private final static long OUTBOUND_HIGH_WATERMARK = 1024 * 1024;
+    private final static long OUTBOUND_LOW_WATERMARK = 256 * 1024;
+
+    private final Transport transport;
+    private final EventLoop eventLoop;
+    private final Executor workers;
+    private final ClientSession session;
+    private final String remoteAddress;
+    private SelectionKey key;
+
+    // Touched by event loop only.
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+
+    private final Queue<ByteBuffer> inboundFrames = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean processing = new AtomicBoolean();
+    // Switched by worker on HELLO.
+    private volatile FrameCodec inboundCodec = FrameCodec.LEGACY;
+    private volatile FrameCodec outboundCodec = FrameCodec.LEGACY;
+    // Since when waiting for a command, 0 if not waiting. Cleared by event
+    // loop on any frame, set by worker after a command is done: waiting for
+    // the first command after accept or HELLO, or for the next command on
+    // a keep-alive connection. Never set on a persistent connection.
+    private volatile long idleSinceMillis = System.currentTimeMillis();
+    private volatile long idleTimeoutMillis = FIRST_COMMAND_TIMEOUT_MILLIS;
+
+    // Either ByteBuffer or FileRegion.
+    private final Queue<Object> outbound = new ConcurrentLinkedQueue<>();
+    private final Object outboundLock = new Object();
+    private long outboundBytes;  // Guarded by outboundLock.
+    private volatile boolean closeAfterFlush;
+    // Client has shut down its output, close once queued frames are done.
+    private volatile boolean inputClosed;
+    private volatile boolean closeRequested;
+    private volatile boolean closed;
+
+    NioClient(Transport transport, EventLoop eventLoop, Executor workers,
+              ClientCommandHandler commandHandler) throws IOException {
+        this.transport = transport;
+        this.eventLoop = eventLoop;
+        this.workers = workers;
+        this.remoteAddress = String.valueOf(transport.getChannel().getRemoteAddress());
+        session = new ClientSession(this, commandHandler);
+    }
+
+    SocketChannel getChannel() {
+        return transport.getChannel();
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    @Override
+    public String toString() {
+        return remoteAddress;
+    }
+
+    /**
+     * Called by event loop when the channel is readable.
+     */
+    void onReadable() {
+        try {
+            while (true) {
+                if (!readBuffer.hasRemaining())
+                    growReadBuffer();
+                int n = transport.read(readBuffer);
+                readBuffer.flip();
+                ByteBuffer frame;
+                while ((frame = inboundCodec.decode(readBuffer)) != null) {
+                    idleSinceMillis = 0;
+                    if (!closeAfterFlush)
+                        inboundFrames.add(frame);
+                }
+                readBuffer.compact();
+                shrinkReadBuffer();
+                if (n < 0) {
+                    LOGGER.fine("connection closed by client " + this);
+                    // Commands sent before are still handled, as the
+                    // blocking engine does.
+                    inputClosed = true;
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                    if (processing.compareAndSet(false, true))
+                        workers.execute(this::processFrames);
+                    return;
+                }
+                if (n == 0)
+                    break;
+            }
+            if (!inboundFrames.isEmpty() && processing.compareAndSet(false, true))
+                workers.execute(this::processFrames);
+            // TLS handshake may have something to send.
+            onWritable();
+        } catch (IOException e) {
+            LOGGER.warning("error on read from client " + this + ": " + e);
+            close();
+        }
+    }
+
+    /**
+     * Make room for a frame larger than the read buffer.
+     */
+    private void growReadBuffer() throws IOException {
+        int maxSize = inboundCodec.getMaxFrameSize();
+        if (readBuffer.capacity() >= maxSize)
+            throw new IOException("frame too large");
+        ByteBuffer newBuffer = ByteBuffer.allocate(
+                (int) Math.min((long) readBuffer.capacity() * 2, maxSize));
+        readBuffer.flip();
+        newBuffer.put(readBuffer);
+        readBuffer = newBuffer;
+    }
+
+    /**
+     * Fall back to a small buffer after a large frame, so that a long-lived
+     * connection doesn't keep the largest frame it ever read. Must be called
+     * after compact().
+     */
+    private void shrinkReadBuffer() {
+        if (readBuffer.capacity() <= READ_BUFFER_SHRINK_THRESHOLD
+                || readBuffer.position() > INITIAL_READ_BUFFER_SIZE)
+            return;
+        ByteBuffer newBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+        readBuffer.flip();
+        newBuffer.put(readBuffer);
+        readBuffer = newBuffer;
+    }
+
+    /**
+     * Handle queued frames on a worker thread.
+     */
+    private void processFrames() {
+        do {
+            ByteBuffer frame;
+            while (!closed && !closeAfterFlush && (frame = inboundFrames.poll()) != null)
+                handleFrame(frame);
+            processing.set(false);
+        } while (!closed && !closeAfterFlush && !inboundFrames.isEmpty()
+                && processing.compareAndSet(false, true));
+        if (closed && processing.compareAndSet(false, true))
+            session.close();
+        else if (inputClosed && !closeAfterFlush && inboundFrames.isEmpty())
+            requestCloseAfterFlush();
+    }
+
+    private void handleFrame(ByteBuffer frame) {
+        try {
+            Command command;
+            try {
+                command = inboundCodec.parse(frame, Command.class);
+            } catch (JsonMappingException | JsonParseException e) {
+                if (session.isPersistent())
+                    throw e;
+                session.handleInvalidCommand(e);
+                requestCloseAfterFlush();
+                return;
+            }
+            if (!session.handleCommand(command))
+                requestCloseAfterFlush();
+            else if (command instanceof Hello && !session.isPersistent())
+                waitForCommand(FIRST_COMMAND_TIMEOUT_MILLIS);
+            else if (session.isKeepAlive())
+                waitForCommand(ClientSession.KEEP_ALIVE_TIMEOUT_MILLIS);
+            else
+                idleSinceMillis = 0;
+        } catch (IOException e) {
+            LOGGER.warning("error on handle client " + this + ": " + e);
+            closeRequested = true;
+            eventLoop.requestFlush(this);
+        }
+    }
+
+    private void waitForCommand(long timeoutMillis) {
+        idleTimeoutMillis = timeoutMillis;
+        idleSinceMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public void abort() {
+        closeRequested = true;
+        eventLoop.requestFlush(this);
+    }
+
+    private void requestCloseAfterFlush() {
+        closeAfterFlush = true;
+        eventLoop.requestFlush(this);
+    }
+
+    @Override
+    public void sendJSON(Object value) throws IOException {
+        enqueue(outboundCodec.encode(value));
+    }
+
+    @Override
+    public void upgrade(Set<String> features, Response response) throws IOException {
+        // Client won't send anything until it receives the response, so
+        // switch inbound first.
+        inboundCodec = FrameCodec.of(features);
+        enqueue(outboundCodec.encode(response));
+        outboundCodec = FrameCodec.of(features);
+    }
+
+    /**
+     * Part of a file to send, written out by event loop directly from the
+     * file with {@link Transport#transferFrom(FileChannel, long, long)}.
+     */
+    private static class FileRegion {
+        final FileChannel file;
+        final long end;
+        long position;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        FileRegion(FileChannel file, long end) {
+            this.file = file;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Block until the whole file is written, since the caller will close
+     * the file after return.
+     */
+    @Override
+    public void writeBinary(FileChannel file) throws IOException {
+        FileRegion region = new FileRegion(file, file.size());
+        synchronized (outboundLock) {
+            if (closed)
+                throw new IOException("connection closed");
+            outbound.add(region);
+        }
+        eventLoop.requestFlush(this);
+        try {
+            region.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted on sending to client", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                    : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Queue bytes to send. Block if too many bytes are already queued.
+     * Never called from event loop.
+     */
+    private void enqueue(ByteBuffer buffer) throws IOException {
+        synchronized (outboundLock) {
+            try {
+                while (outboundBytes > OUTBOUND_HIGH_WATERMARK && !closed)
+                    outboundLock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted on sending to client", e);
+            }
+            if (closed)
+                throw new IOException("connection closed");
+            outbound.add(buffer);
+            outboundBytes += buffer.remaining();
+        }
+        eventLoop.requestFlush(this);
+    }
+
+    /**
+     * Called by event loop when the channel is writable, or there is
+     * something new to write.
+     */
+    void onWritable() {
+        if (closed || key == null || !key.isValid())
+            return;
+        if (closeRequested) {
+            close();
+            return;
+        }
+        try {
+            boolean drained = transport.flush();
+            long written = 0;
+            Object item;
+            while (drained && (item = outbound.peek()) != null) {
+                if (item instanceof FileRegion) {
+                    FileRegion region = (FileRegion) item;
+                    long n = transport.transferFrom(region.file, region.position,
+                            region.end - region.position);
+                    region.position += n;
+                    if (region.position < region.end) {
+                        if (n == 0 && region.position >= region.file.size())
+                            throw new EOFException("file truncated");
+                        drained = false;
+                    } else {
+                        outbound.poll();
+                        region.done.complete(null);
+                    }
+                    continue;
+                }
+                ByteBuffer buffer = (ByteBuffer) item;
+                written += transport.write(buffer);
+                if (buffer.hasRemaining())
+                    drained = false;
+                else
+                    outbound.poll();
+            }
+            if (written > 0) {
+                synchronized (outboundLock) {
+                    outboundBytes -= written;
+                    if (outboundBytes <= OUTBOUND_LOW_WATERMARK)
+                        outboundLock.notifyAll();
+                }
+            }
+            if (drained && transport.flush()) {
+                if (closeAfterFlush && outbound.isEmpty()) {
+                    close();
+                    return;
+                }
+                key.interestOps(inputClosed ? 0 : SelectionKey.OP_READ);
+            } else {
+                key.interestOps((inputClosed ? 0 : SelectionKey.OP_READ) | SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            LOGGER.warning("error on write to client " + this + ": " + e);
+            close();
+        }
+    }
+
+    /**
+     * Called by event loop periodically.
+     */
+    void checkTimeout(long nowMillis) {
+        long idleSince = idleSinceMillis;
+        if (idleSince != 0 && nowMillis - idleSince > idleTimeoutMillis
+                && !processing.get() && inboundFrames.isEmpty()) {
+            LOGGER.info("timeout on waiting command from " + this);
+            close();
+        }
+    }
+
+    /**
+     * Close the connection. Called by event loop only.
+     */
+    void close() {
+        synchronized (outboundLock) {
+            if (closed)
+                return;
+            closed = true;
+            outboundLock.notifyAll();
+        }
+        for (Object item : outbound)
+            if (item instanceof FileRegion)
+                ((FileRegion) item).done.completeExceptionally(
+                        new IOException("connection closed"));
+        if (key != null)
+            key.cancel();
+        try {
+            transport.close();
+        } catch (IOException e) {
+            LOGGER.fine("error on close client " + this + ": " + e);
+        }
+        // Close session after the command in handling, if any. It may do
+        // network I/O when unsubscribe relays, so keep it off event loop.
+        if (processing.compareAndSet(false, true))
+            workers.execute(session::close);
+    }
+}
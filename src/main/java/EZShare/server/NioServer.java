@@ -0,0 +1,103 @@
+package EZShare.server;
+
+import EZShare.networking.PlainTransport;
+import EZShare.networking.SecurityHelper;
+import EZShare.networking.TlsTransport;
+import EZShare.networking.Transport;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Logger;
+
+/**
+ * Accept connections on a non-blocking server channel, and spread them
+ * over a few {@link EventLoop} in round-robin.
+ *
+ * Created on 2026/10/18.
+ */
+class NioServer {
+    private final static Logger LOGGER = Logger.getLogger(NioServer.class.getName());
+
+    private final ServerSocketChannel serverChannel;
+    private final SSLContext sslContext;
+    private final ClientCommandHandler commandHandler;
+    private final ExecutorService workers;
+    private final ConnectionLimiter connectionLimiter;
+    private final EventLoop[] eventLoops;
+    private int nextEventLoop;
+
+    /**
+     * Bind to port and start event loops on their own threads.
+     * @param sslContext to accept TLS connections, or null for plain ones.
+     * @throws IOException if failed to bind the port.
+     */
+    NioServer(int port, SSLContext sslContext, ClientCommandHandler commandHandler,
+              ExecutorService workers, ConnectionLimiter connectionLimiter) throws IOException {
+        this.sslContext = sslContext;
+        this.commandHandler = commandHandler;
+        this.workers = workers;
+        this.connectionLimiter = connectionLimiter;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        eventLoops = new EventLoop[Math.max(1, Runtime.getRuntime().availableProcessors() / 2)];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop();
+            // Selectors stay on platform threads, whatever the workers are.
+            Thread thread = new Thread(eventLoops[i], "nio-event-loop-" + port + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Accept connections until stop() be invoked.
+     * @throws IOException if error on accept.
+     */
+    void serveForever() throws IOException {
+        while (serverChannel.isOpen()) {
+            SocketChannel channel = serverChannel.accept();
+            if (!connectionLimiter.tryAccept(channel.socket().getInetAddress())) {
+                LOGGER.info("reject connection from " + channel.socket().getInetAddress());
+                channel.close();
+                continue;
+            }
+            LOGGER.info("accept connection from " + channel.socket().getInetAddress());
+            try {
+                channel.configureBlocking(false);
+                EventLoop eventLoop = eventLoops[nextEventLoop];
+                nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+                eventLoop.register(new NioClient(createTransport(channel),
+                        eventLoop, workers, commandHandler));
+            } catch (IOException e) {
+                LOGGER.warning("error on handle client "
+                        + channel.socket().getInetAddress() + ": " + e);
+                channel.close();
+            }
+        }
+    }
+
+    private Transport createTransport(SocketChannel channel) throws IOException {
+        if (sslContext == null)
+            return new PlainTransport(channel);
+        SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setNeedClientAuth(true);
+        SecurityHelper.configure(engine);
+        return new TlsTransport(channel, engine);
+    }
+
+    void stop() {
+        try {
+            serverChannel.close();
+        } catch (IOException e) {
+            LOGGER.fine("error on close server channel: " + e);
+        }
+        for (EventLoop eventLoop : eventLoops)
+            eventLoop.stop();
+    }
+}
@@ -0,0 +1,80 @@
+package EZShare.server;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of a server's health, see {@link PeerStatsMXBean}.
+ *
+ * Created on 2026/10/18.
+ */
+public class PeerHealth {
+    private final String server;
+    private final String circuitState;
+    private final double averageLatencyMillis;
+    private final double latencyDeviationMillis;
+    private final long p95LatencyMillis;
+    private final double successRate;
+    private final int consecutiveFailures;
+    private final long retryInMillis;
+
+    @ConstructorProperties({"server", "circuitState", "averageLatencyMillis",
+            "latencyDeviationMillis", "p95LatencyMillis", "successRate",
+            "consecutiveFailures", "retryInMillis"})
+    public PeerHealth(String server, String circuitState, double averageLatencyMillis,
+                      double latencyDeviationMillis, long p95LatencyMillis,
+                      double successRate,
+                      int consecutiveFailures, long retryInMillis) {
+        this.server = server;
+        this.circuitState = circuitState;
+        this.averageLatencyMillis = averageLatencyMillis;
+        this.latencyDeviationMillis = latencyDeviationMillis;
+        this.p95LatencyMillis = p95LatencyMillis;
+        this.successRate = successRate;
+        this.consecutiveFailures = consecutiveFailures;
+        this.retryInMillis = retryInMillis;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    /**
+     * @return CLOSED, OPEN or HALF_OPEN.
+     */
+    public String getCircuitState() {
+        return circuitState;
+    }
+
+    public double getAverageLatencyMillis() {
+        return averageLatencyMillis;
+    }
+
+    public double getLatencyDeviationMillis() {
+        return latencyDeviationMillis;
+    }
+
+    /**
+     * @return 95th percentile of recent latency, -1 if not enough samples.
+     */
+    public long getP95LatencyMillis() {
+        return p95LatencyMillis;
+    }
+
+    /**
+     * @return moving average of successes, 1 for all success.
+     */
+    public double getSuccessRate() {
+        return successRate;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * @return milliseconds until next probe, 0 if circuit closed.
+     */
+    public long getRetryInMillis() {
+        return retryInMillis;
+    }
+}
@@ -0,0 +1,245 @@
+package EZShare.server;
+
+import EZShare.entities.Server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Health of other servers, observed on relayed queries.
+ *
+ * Latency is smoothed the same way as TCP retransmission timer (RFC 6298):
+ * a moving average and its mean deviation, so that each server can be
+ * given a timeout that fits it, rather than a fixed one for all. Recent
+ * samples are also kept for percentiles, to tell when a query is slower
+ * than usual and worth hedging.
+ *
+ * Each server also has a circuit breaker. After some failures in a row,
+ * the circuit opens and the server is skipped. Once its backoff passes,
+ * one query is let through as a probe: success closes the circuit, failure
+ * opens it again with a doubled backoff.
+ *
+ * Created on 2026/10/18.
+ */
+class PeerStats implements PeerStatsMXBean {
+    private final static Logger LOGGER = Logger.getLogger(PeerStats.class.getName());
+    private final static double ALPHA = 1.0 / 8;
+    private final static double BETA = 1.0 / 4;
+    private final static int DEVIATION_FACTOR = 4;
+    private final static int MIN_TIMEOUT_MILLIS = 200;
+    private final static double SUCCESS_RATE_ALPHA = 1.0 / 8;
+    private final static int FAILURE_THRESHOLD = 3;
+    private final static long MIN_BACKOFF_MILLIS = 1000;
+    private final static long MAX_BACKOFF_MILLIS = 5 * 60 * 1000;  // 5 minutes
+    private final static int RECENT_SAMPLES = 64;
+    private final static int MIN_PERCENTILE_SAMPLES = 10;
+
+    enum CircuitState {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    // Guarded by itself.
+    private static class Entry {
+        boolean hasLatency;
+        double average;
+        double deviation;
+        double successRate = 1;
+        int consecutiveFailures;
+        CircuitState state = CircuitState.CLOSED;
+        long backoffMillis = MIN_BACKOFF_MILLIS;
+        long retryAtMillis;
+        // Ring buffer of latency of recent successes.
+        final long[] recent = new long[RECENT_SAMPLES];
+        int recentCount;
+    }
+
+    private final ConcurrentHashMap<Server, Entry> entries = new ConcurrentHashMap<>();
+
+    private Entry getEntry(Server server) {
+        return entries.computeIfAbsent(server, s -> new Entry());
+    }
+
+    /**
+     * The server responded.
+     * @param server that responded.
+     * @param millis taken from sending the command to the first response.
+     */
+    void recordLatency(Server server, long millis) {
+        Entry entry = getEntry(server);
+        synchronized (entry) {
+            updateLatency(entry, millis);
+            entry.recent[entry.recentCount++ % RECENT_SAMPLES] = millis;
+            if (entry.recentCount == 2 * RECENT_SAMPLES)
+                entry.recentCount = RECENT_SAMPLES;
+            entry.successRate += SUCCESS_RATE_ALPHA * (1 - entry.successRate);
+            entry.consecutiveFailures = 0;
+            if (entry.state != CircuitState.CLOSED)
+                LOGGER.info("circuit closed, " + server + " is back");
+            entry.state = CircuitState.CLOSED;
+            entry.backoffMillis = MIN_BACKOFF_MILLIS;
+        }
+    }
+
+    private static void updateLatency(Entry entry, long millis) {
+        if (!entry.hasLatency) {
+            entry.hasLatency = true;
+            entry.average = millis;
+            entry.deviation = millis / 2.0;
+            return;
+        }
+        entry.deviation += BETA * (Math.abs(entry.average - millis) - entry.deviation);
+        entry.average += ALPHA * (millis - entry.average);
+    }
+
+    /**
+     * The server didn't respond within the timeout, count it as the
+     * latency so that it gets a longer timeout next time.
+     * Failure should be recorded separately.
+     */
+    void recordTimeout(Server server, long timeoutMillis) {
+        Entry entry = getEntry(server);
+        synchronized (entry) {
+            updateLatency(entry, timeoutMillis);
+        }
+    }
+
+    /**
+     * The server failed to answer, either on connecting, timeout, or
+     * something wrong in its result.
+     */
+    void recordFailure(Server server) {
+        Entry entry = getEntry(server);
+        synchronized (entry) {
+            entry.successRate -= SUCCESS_RATE_ALPHA * entry.successRate;
+            entry.consecutiveFailures++;
+            if (entry.state == CircuitState.HALF_OPEN) {
+                entry.backoffMillis = Math.min(entry.backoffMillis * 2, MAX_BACKOFF_MILLIS);
+                open(server, entry);
+            } else if (entry.state == CircuitState.CLOSED
+                    && entry.consecutiveFailures >= FAILURE_THRESHOLD) {
+                open(server, entry);
+            }
+        }
+    }
+
+    private static void open(Server server, Entry entry) {
+        entry.state = CircuitState.OPEN;
+        entry.retryAtMillis = System.currentTimeMillis() + entry.backoffMillis;
+        LOGGER.info(String.format("circuit opened, skip %s for %d ms",
+                server, entry.backoffMillis));
+    }
+
+    /**
+     * Ask whether to send a query to the server. A server with open
+     * circuit is let through once its backoff passes, as a probe. If the
+     * probe ends without an outcome, another one is let through after
+     * another backoff.
+     * @return false if the server should be skipped.
+     */
+    boolean tryAcquire(Server server) {
+        Entry entry = entries.get(server);
+        if (entry == null)
+            return true;
+        synchronized (entry) {
+            if (entry.state == CircuitState.CLOSED)
+                return true;
+            long now = System.currentTimeMillis();
+            if (now < entry.retryAtMillis)
+                return false;
+            entry.state = CircuitState.HALF_OPEN;
+            entry.retryAtMillis = now + entry.backoffMillis;
+            return true;
+        }
+    }
+
+    /**
+     * @param server to wait for.
+     * @param maxMillis the longest acceptable timeout.
+     * @return milliseconds to wait for its first response, no more than
+     * maxMillis.
+     */
+    int getTimeout(Server server, int maxMillis) {
+        Entry entry = entries.get(server);
+        if (entry == null)
+            return maxMillis;
+        double timeout;
+        synchronized (entry) {
+            if (!entry.hasLatency)
+                return maxMillis;
+            timeout = entry.average + DEVIATION_FACTOR * entry.deviation;
+        }
+        return (int) Math.min(maxMillis, Math.max(MIN_TIMEOUT_MILLIS, Math.ceil(timeout)));
+    }
+
+    /**
+     * @param server to look up.
+     * @param percentile between 0 and 100.
+     * @return the percentile of latency of recent successes, or -1 if not
+     * enough samples.
+     */
+    long getLatencyPercentile(Server server, double percentile) {
+        Entry entry = entries.get(server);
+        if (entry == null)
+            return -1;
+        long[] samples;
+        synchronized (entry) {
+            int count = Math.min(entry.recentCount, RECENT_SAMPLES);
+            if (count < MIN_PERCENTILE_SAMPLES)
+                return -1;
+            samples = Arrays.copyOf(entry.recent, count);
+        }
+        Arrays.sort(samples);
+        int rank = (int) Math.ceil(percentile / 100 * samples.length) - 1;
+        return samples[Math.max(0, Math.min(rank, samples.length - 1))];
+    }
+
+    /**
+     * @return average latency of the server, 0 if unknown.
+     */
+    double getAverageLatency(Server server) {
+        Entry entry = entries.get(server);
+        if (entry == null)
+            return 0;
+        synchronized (entry) {
+            return entry.average;
+        }
+    }
+
+    /**
+     * Forget a server removed from the list.
+     */
+    void remove(Server server) {
+        entries.remove(server);
+    }
+
+    @Override
+    public List<PeerHealth> getPeers() {
+        List<PeerHealth> peers = new ArrayList<>(entries.size());
+        long now = System.currentTimeMillis();
+        entries.forEach((server, entry) -> {
+            long p95 = getLatencyPercentile(server, 95);
+            synchronized (entry) {
+                peers.add(new PeerHealth(server.toString(), entry.state.name(),
+                        entry.average, entry.deviation, p95, entry.successRate,
+                        entry.consecutiveFailures,
+                        entry.state == CircuitState.CLOSED ?
+                                0 : Math.max(0, entry.retryAtMillis - now)));
+            }
+        });
+        return peers;
+    }
+
+    @Override
+    public int getOpenCircuits() {
+        int count = 0;
+        for (Entry entry : entries.values())
+            synchronized (entry) {
+                if (entry.state != CircuitState.CLOSED)
+                    count++;
+            }
+        return count;
+    }
+}
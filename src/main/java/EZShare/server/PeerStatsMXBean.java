@@ -0,0 +1,21 @@
+package EZShare.server;
+
+import java.util.List;
+
+/**
+ * Health of other servers, exposed by JMX under
+ * "EZShare:type=PeerStats,port=[port]".
+ *
+ * Created on 2026/10/18.
+ */
+public interface PeerStatsMXBean {
+    /**
+     * @return health of each known server.
+     */
+    List<PeerHealth> getPeers();
+
+    /**
+     * @return number of servers being skipped or probed.
+     */
+    int getOpenCircuits();
+}
@@ -0,0 +1,66 @@
+package EZShare.server;
+
+import EZShare.entities.ContentSummary;
+import EZShare.entities.Server;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link ContentSummary} of other servers, to skip servers that have
+ * nothing to match on relayed queries.
+ *
+ * Summaries only come from servers we connected to, in their responses to
+ * EXCHANGE and QUERY, never pushed by others, so that no one can hide a
+ * server from us. A summary is trusted for a limited time, resources
+ * published after that are missed until then at most.
+ *
+ * Created on 2026/10/18.
+ */
+class PeerSummaries {
+    private final static long TTL_MILLIS = 60 * 1000;
+    // Ask for a new one before it expires, so that the server keep skipped.
+    private final static long REFRESH_MILLIS = TTL_MILLIS / 2;
+
+    private static class Entry {
+        final ContentSummary summary;
+        final long receivedAt = System.currentTimeMillis();
+
+        Entry(ContentSummary summary) {
+            this.summary = summary;
+        }
+    }
+
+    private final ConcurrentHashMap<Server, Entry> entries = new ConcurrentHashMap<>();
+
+    void put(Server server, ContentSummary summary) {
+        if (summary.isValid())
+            entries.put(server, new Entry(summary));
+    }
+
+    void remove(Server server) {
+        entries.remove(server);
+    }
+
+    /**
+     * @return false if the server has a fresh summary that rules out the
+     * template.
+     */
+    boolean mayMatch(Server server, ContentSummary.Probe probe) {
+        Entry entry = entries.get(server);
+        if (entry == null)
+            return true;
+        if (System.currentTimeMillis() - entry.receivedAt > TTL_MILLIS) {
+            entries.remove(server, entry);
+            return true;
+        }
+        return entry.summary.mayMatch(probe);
+    }
+
+    /**
+     * @return true if the summary of server should be asked for.
+     */
+    boolean needsRefresh(Server server) {
+        Entry entry = entries.get(server);
+        return entry == null || System.currentTimeMillis() - entry.receivedAt > REFRESH_MILLIS;
+    }
+}
@@ -0,0 +1,400 @@
+package EZShare.server;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Immutable hash map, i.e. a hash array mapped trie.
+ *
+ * Put & remove return a new map that shares all untouched nodes with the
+ * old one, so that both cost O(log32 n) and any old map stays valid as a
+ * snapshot. Safe to read from many threads without locking.
+ *
+ * Created on 2026/10/18.
+ */
+final class PersistentHashMap<K, V> {
+    private final static int BITS = 5;
+    private final static int MASK = (1 << BITS) - 1;
+    private final static PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        if (root == null)
+            return null;
+        Leaf leaf = root.find(0, hash(key), key);
+        return leaf == null ? null : (V) leaf.value;
+    }
+
+    V getOrDefault(Object key, V defaultValue) {
+        V value = get(key);
+        return value == null ? defaultValue : value;
+    }
+
+    boolean containsKey(Object key) {
+        return root != null && root.find(0, hash(key), key) != null;
+    }
+
+    /**
+     * @return a map with the key mapped to value, or this map if it is
+     * already so.
+     */
+    PersistentHashMap<K, V> put(K key, V value) {
+        Leaf leaf = new Leaf(hash(key), key, value);
+        if (root == null)
+            return new PersistentHashMap<>(BitmapNode.of(0, leaf), 1);
+        boolean[] added = { false };
+        Node newRoot = root.put(0, leaf, added);
+        if (newRoot == root)
+            return this;
+        return new PersistentHashMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * @return a map without the key, or this map if the key not exists.
+     */
+    PersistentHashMap<K, V> remove(Object key) {
+        if (root == null)
+            return this;
+        Node newRoot = root.remove(0, hash(key), key);
+        if (newRoot == root)
+            return this;
+        return newRoot == null ? empty() : new PersistentHashMap<>(newRoot, size - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<K, V> action) {
+        Iterator<Leaf> leaves = leafIterator();
+        while (leaves.hasNext()) {
+            Leaf leaf = leaves.next();
+            action.accept((K) leaf.key, (V) leaf.value);
+        }
+    }
+
+    /**
+     * @return a lazy stream on values of this map.
+     */
+    @SuppressWarnings("unchecked")
+    Stream<V> values() {
+        return StreamSupport.stream(Spliterators.spliterator(leafIterator(), size,
+                Spliterator.IMMUTABLE | Spliterator.NONNULL), false)
+                .map(leaf -> (V) leaf.value);
+    }
+
+    /**
+     * @return a lazy stream on entries of this map.
+     */
+    @SuppressWarnings("unchecked")
+    Stream<Map.Entry<K, V>> entries() {
+        return StreamSupport.stream(Spliterators.spliterator(leafIterator(), size,
+                Spliterator.IMMUTABLE | Spliterator.NONNULL), false)
+                .map(leaf -> new AbstractMap.SimpleImmutableEntry<>((K) leaf.key, (V) leaf.value));
+    }
+
+    private Iterator<Leaf> leafIterator() {
+        return new Iterator<Leaf>() {
+            // Depth-first walk, each level is (slots, next index).
+            private final Deque<Object[]> slotsStack = new ArrayDeque<>();
+            private final Deque<Integer> indexStack = new ArrayDeque<>();
+            private Leaf next;
+
+            {
+                if (root != null) {
+                    slotsStack.push(root.slots());
+                    indexStack.push(0);
+                }
+                advance();
+            }
+
+            private void advance() {
+                next = null;
+                while (next == null && !slotsStack.isEmpty()) {
+                    Object[] slots = slotsStack.peek();
+                    int index = indexStack.pop();
+                    if (index >= slots.length) {
+                        slotsStack.pop();
+                        continue;
+                    }
+                    indexStack.push(index + 1);
+                    Object slot = slots[index];
+                    if (slot instanceof Leaf) {
+                        next = (Leaf) slot;
+                    } else {
+                        slotsStack.push(((Node) slot).slots());
+                        indexStack.push(0);
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Leaf next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                Leaf leaf = next;
+                advance();
+                return leaf;
+            }
+        };
+    }
+
+    private static final class Leaf {
+        final int hash;
+        final Object key;
+        final Object value;
+
+        Leaf(int hash, Object key, Object value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        boolean hasKey(int hash, Object key) {
+            return this.hash == hash && this.key.equals(key);
+        }
+    }
+
+    private static abstract class Node {
+        abstract Leaf find(int shift, int hash, Object key);
+
+        /**
+         * @param added set to true if a new key is added.
+         * @return node with the leaf, or this node if nothing changed.
+         */
+        abstract Node put(int shift, Leaf leaf, boolean[] added);
+
+        /**
+         * @return node without the key, this node if not found, or null
+         * if the node become empty.
+         */
+        abstract Node remove(int shift, int hash, Object key);
+
+        /**
+         * @return either Leaf or Node in each slot.
+         */
+        abstract Object[] slots();
+
+        /**
+         * @return the leaf if it's the only thing in this node, otherwise null.
+         */
+        Leaf singleLeaf() {
+            Object[] slots = slots();
+            return slots.length == 1 && slots[0] instanceof Leaf ? (Leaf) slots[0] : null;
+        }
+    }
+
+    /**
+     * Up to 32 slots, indexed by 5 bits of the hash on its level.
+     * Only existing slots are stored, the bitmap marks which of them exist.
+     */
+    private static final class BitmapNode extends Node {
+        private final int bitmap;
+        private final Object[] slots;
+
+        private BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        static BitmapNode of(int shift, Leaf leaf) {
+            return new BitmapNode(bit(shift, leaf.hash), new Object[] { leaf });
+        }
+
+        private static int bit(int shift, int hash) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object[] slots() {
+            return slots;
+        }
+
+        @Override
+        Leaf find(int shift, int hash, Object key) {
+            int bit = bit(shift, hash);
+            if ((bitmap & bit) == 0)
+                return null;
+            Object slot = slots[index(bit)];
+            if (slot instanceof Leaf)
+                return ((Leaf) slot).hasKey(hash, key) ? (Leaf) slot : null;
+            return ((Node) slot).find(shift + BITS, hash, key);
+        }
+
+        private BitmapNode withSlot(int index, Object slot) {
+            Object[] newSlots = slots.clone();
+            newSlots[index] = slot;
+            return new BitmapNode(bitmap, newSlots);
+        }
+
+        @Override
+        Node put(int shift, Leaf leaf, boolean[] added) {
+            int bit = bit(shift, leaf.hash);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newSlots = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, newSlots, 0, index);
+                newSlots[index] = leaf;
+                System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, newSlots);
+            }
+            Object slot = slots[index];
+            if (slot instanceof Leaf) {
+                Leaf old = (Leaf) slot;
+                if (old.hasKey(leaf.hash, leaf.key))
+                    return old.value == leaf.value ? this : withSlot(index, leaf);
+                added[0] = true;
+                return withSlot(index, merge(shift + BITS, old, leaf));
+            }
+            Node node = (Node) slot;
+            Node newNode = node.put(shift + BITS, leaf, added);
+            return newNode == node ? this : withSlot(index, newNode);
+        }
+
+        private static Node merge(int shift, Leaf a, Leaf b) {
+            if (a.hash == b.hash)
+                return new CollisionNode(a.hash, new Leaf[] { a, b });
+            int bitA = bit(shift, a.hash);
+            int bitB = bit(shift, b.hash);
+            if (bitA == bitB)
+                return new BitmapNode(bitA, new Object[] { merge(shift + BITS, a, b) });
+            return new BitmapNode(bitA | bitB,
+                    Integer.compareUnsigned(bitA, bitB) < 0
+                            ? new Object[] { a, b } : new Object[] { b, a });
+        }
+
+        @Override
+        Node remove(int shift, int hash, Object key) {
+            int bit = bit(shift, hash);
+            if ((bitmap & bit) == 0)
+                return this;
+            int index = index(bit);
+            Object slot = slots[index];
+            Object newSlot;
+            if (slot instanceof Leaf) {
+                if (!((Leaf) slot).hasKey(hash, key))
+                    return this;
+                newSlot = null;
+            } else {
+                Node node = (Node) slot;
+                Node newNode = node.remove(shift + BITS, hash, key);
+                if (newNode == node)
+                    return this;
+                // Pull up a lonely leaf to keep the trie shallow.
+                Leaf single = newNode == null ? null : newNode.singleLeaf();
+                newSlot = single != null ? single : newNode;
+            }
+            if (newSlot != null)
+                return withSlot(index, newSlot);
+            if (slots.length == 1)
+                return null;
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+            return new BitmapNode(bitmap & ~bit, newSlots);
+        }
+    }
+
+    /**
+     * Leaves of different keys with the same full hash.
+     */
+    private static final class CollisionNode extends Node {
+        private final int hash;
+        private final Leaf[] leaves;
+
+        CollisionNode(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        @Override
+        Object[] slots() {
+            return leaves;
+        }
+
+        private int indexOf(Object key) {
+            for (int i = 0; i < leaves.length; i++)
+                if (leaves[i].key.equals(key))
+                    return i;
+            return -1;
+        }
+
+        @Override
+        Leaf find(int shift, int hash, Object key) {
+            if (hash != this.hash)
+                return null;
+            int index = indexOf(key);
+            return index < 0 ? null : leaves[index];
+        }
+
+        @Override
+        Node put(int shift, Leaf leaf, boolean[] added) {
+            if (leaf.hash != hash)
+                // Push this node one level down, next to the new leaf.
+                return new BitmapNode(BitmapNode.bit(shift, hash), new Object[] { this })
+                        .put(shift, leaf, added);
+            int index = indexOf(leaf.key);
+            if (index >= 0) {
+                if (leaves[index].value == leaf.value)
+                    return this;
+                Leaf[] newLeaves = leaves.clone();
+                newLeaves[index] = leaf;
+                return new CollisionNode(hash, newLeaves);
+            }
+            Leaf[] newLeaves = Arrays.copyOf(leaves, leaves.length + 1);
+            newLeaves[leaves.length] = leaf;
+            added[0] = true;
+            return new CollisionNode(hash, newLeaves);
+        }
+
+        @Override
+        Node remove(int shift, int hash, Object key) {
+            if (hash != this.hash)
+                return this;
+            int index = indexOf(key);
+            if (index < 0)
+                return this;
+            if (leaves.length == 1)
+                return null;
+            Leaf[] newLeaves = new Leaf[leaves.length - 1];
+            System.arraycopy(leaves, 0, newLeaves, 0, index);
+            System.arraycopy(leaves, index + 1, newLeaves, index, leaves.length - index - 1);
+            return new CollisionNode(hash, newLeaves);
+        }
+    }
+}
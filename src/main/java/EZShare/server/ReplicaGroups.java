@@ -0,0 +1,72 @@
+package EZShare.server;
+
+import EZShare.entities.Server;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Group servers on the list that serve the same content.
+ *
+ * Servers answer EXCHANGE with the epoch of their list, a random ID made
+ * on each start (see {@link Membership}). Entries on the list with the
+ * same epoch are the same server process reached by different names, and
+ * are treated as replicas of each other: querying one of them is enough.
+ *
+ * The advertised address ("ezserver" on resources) is not used, since it
+ * is only declared by the server and distinct servers may share one, e.g.
+ * "localhost" or a copied config.
+ *
+ * Epochs are learnt from EXCHANGE responses, servers not known yet or
+ * that don't tell their epochs are a group by themselves.
+ *
+ * Created on 2026/10/18.
+ */
+class ReplicaGroups {
+    private final ConcurrentHashMap<Server, String> epochs = new ConcurrentHashMap<>();
+
+    /**
+     * @param server on the list.
+     * @param epoch told by the server on EXCHANGE, or null if it didn't.
+     */
+    void learn(Server server, String epoch) {
+        if (epoch != null && !epoch.isEmpty())
+            epochs.put(server, epoch);
+        else
+            epochs.remove(server);
+    }
+
+    void remove(Server server) {
+        epochs.remove(server);
+    }
+
+    /**
+     * @param servers to group.
+     * @param cost of each server, lower is preferred.
+     * @return groups of replicas, cheapest first in each group, and groups
+     * ordered by their cheapest ones.
+     */
+    List<List<Server>> group(Collection<Server> servers, ToDoubleFunction<Server> cost) {
+        Map<String, List<Server>> byEpoch = new HashMap<>();
+        List<List<Server>> groups = new ArrayList<>();
+        for (Server server : servers) {
+            String epoch = epochs.get(server);
+            if (epoch == null) {
+                groups.add(new ArrayList<>(Collections.singletonList(server)));
+                continue;
+            }
+            List<Server> group = byEpoch.get(epoch);
+            if (group == null) {
+                group = new ArrayList<>();
+                byEpoch.put(epoch, group);
+                groups.add(group);
+            }
+            group.add(server);
+        }
+        Comparator<Server> byCost = Comparator.comparingDouble(cost);
+        groups.forEach(group -> group.sort(byCost));
+        groups.sort((a, b) -> byCost.compare(a.get(0), b.get(0)));
+        return groups;
+    }
+}
@@ -7,6 +7,8 @@ import java.util.stream.Stream;
 
 /**
  * Put, update, lookup resources.
+ * Implementations must be thread-safe, one storage is shared by all
+ * server daemons and their clients without external locking.
  * Created on 2017/3/27.
  */
 public interface ResourceStorage {
@@ -31,5 +33,28 @@ public interface ResourceStorage {
         return true;
     }
 
+    /**
+     * Remove a resource if its owner is the same as the given one.
+     * It will find old resource with key (channel, uri), and remove it only
+     * when the owner of old & given resource are the same.
+     * @param resource with channel, uri and owner of the one to remove.
+     * @return false if not found or failed to remove (due to different owner).
+     */
+    public default boolean removeResource(Resource resource) {
+        URI uri = resource.getNormalizedUri();
+        Resource oldResource = get(resource.getChannel(), uri);
+        if (oldResource == null || !oldResource.getOwner().equals(resource.getOwner()))
+            return false;
+        remove(resource.getChannel(), uri);
+        return true;
+    }
+
+    /**
+     * Find all resources match with the template.
+     * The returned stream must be safe to consume after return without
+     * any external lock, and may be consumed lazily.
+     * @param template to match.
+     * @return matched resources.
+     */
     public Stream<Resource> templateQuery(Resource template);
 }
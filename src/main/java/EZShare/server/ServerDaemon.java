@@ -9,21 +9,20 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
 import javax.net.ssl.SSLContext;
-import javax.net.ssl.SSLServerSocket;
 import javax.net.ssl.SSLServerSocketFactory;
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URI;
-import java.util.Hashtable;
-import java.util.Map;
-import java.util.Set;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 /**
  * Main class for server.
@@ -31,15 +30,23 @@ import java.util.stream.Collectors;
  */
 public class ServerDaemon implements ClientCommandHandler {
     private final static Logger LOGGER = Logger.getLogger(ServerDaemon.class.getName());
+    // Storage is shared with the other daemon, so changes are not tracked,
+    // the summary is just rebuilt if asked after this.
+    private final static long SUMMARY_MAX_AGE_MILLIS = 10 * 1000;
 
     private final ServerOptions options;
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private final ExecutorService executorService;
     private final InterServerService interServerService;
     private final SubscriptionService subscriptionService;
     private final ResourceStorage resourceStorage;
     private ServerSocket serverSocket;
+    private NioServer nioServer;
+    private final ConnectionLimiter connectionLimiter;
     private final boolean secure;
     private final int bindPort;
+    private final Object summaryLock = new Object();
+    private ContentSummary summary;
+    private long summaryBuiltAt;
     private boolean isRunning;
 
 
@@ -48,11 +55,15 @@ public class ServerDaemon implements ClientCommandHandler {
         this.secure = isSecure;
         bindPort = isSecure ? options.getSport() : options.getPort();
         this.resourceStorage = resourceStorage;
+        executorService = options.getThreadMode().newCachedPool();
+        connectionLimiter = new ConnectionLimiter(options.getConnectionIntervalLimit());
         interServerService = new InterServerService(
                 options.getHostname(), bindPort, secure,
-                options.getExchangeInterval() * 1000);
-        subscriptionService = new SubscriptionService(secure);
-        interServerService.setServerListUpdatedCallback(subscriptionService::updateServerList);
+                options.getExchangeInterval() * 1000, options.getThreadMode());
+        subscriptionService = new SubscriptionService(secure, options.getThreadMode(),
+                new Server(options.getHostname(), bindPort), interServerService.getEpoch(),
+                options.getOverflowPolicy(), options.getSubscriberQueueSize());
+        interServerService.setServerListChangedCallback(subscriptionService::updateServerList);
     }
 
     public ServerDaemon(ServerOptions options, ResourceStorage resourceStorage) {
@@ -77,15 +88,17 @@ public class ServerDaemon implements ClientCommandHandler {
     private void start() throws IOException, SecuritySetupException {
         LOGGER.info(String.format("bind on %s port %d",
                 isSecure() ?  "secure" : "", bindPort));
-        if (isSecure()) {
-            SSLServerSocket sslSocket =
-                    (SSLServerSocket) SecurityHelper.getServer()
-                            .getSSLContext()
-                            .getServerSocketFactory()
-                            .createServerSocket(bindPort);
-            sslSocket.setNeedClientAuth(true);
-            serverSocket = sslSocket;
+        if (options.getConnectionEngine() == ConnectionEngine.NIO) {
+            SSLContext sslContext = isSecure() ?
+                    SecurityHelper.getServer().getSSLContext() : null;
+            nioServer = new NioServer(bindPort, sslContext, this,
+                    executorService, connectionLimiter);
+        } else if (isSecure()) {
+            serverSocket = SecurityHelper.getServer().createServerSocket(bindPort);
         } else {
+            // Not from a ServerSocketChannel: before JDK 13, streams of a
+            // socket with a channel share one lock, a subscriber blocked on
+            // read would block writes of resources to it.
             serverSocket = new ServerSocket(bindPort);
         }
         isRunning = true;
@@ -122,31 +135,19 @@ public class ServerDaemon implements ClientCommandHandler {
      */
     public void serveForever() throws IOException {
         LOGGER.info(this + " is running");
-        final long intervalLimitMillis = (long) (options.getConnectionIntervalLimit() * 1000);
-        Hashtable<String, Long> lastAcceptTimestamps = new Hashtable<>();
-        long lastCleanupTable = System.currentTimeMillis();
+        if (nioServer != null) {
+            nioServer.serveForever();
+            return;
+        }
 
         while (isRunning) {
             Socket socket = serverSocket.accept();
             // Reject if that IP connecting too frequently.
-            long lastAcceptTimeMillis = lastAcceptTimestamps.getOrDefault(
-                    socket.getInetAddress().getHostAddress(), -intervalLimitMillis);
-            if (System.currentTimeMillis() - lastAcceptTimeMillis < intervalLimitMillis) {
+            if (!connectionLimiter.tryAccept(socket.getInetAddress())) {
                 LOGGER.info(this + " - reject connection from " + socket.getInetAddress());
                 IOUtils.closeQuietly(socket);
                 continue;
             }
-            lastAcceptTimestamps.put(socket.getInetAddress().getHostAddress(),
-                    System.currentTimeMillis());
-            // Clean up lastAcceptTimestamps if we have many entries in it.
-            if (lastAcceptTimestamps.size() > 64
-                    && System.currentTimeMillis() - lastCleanupTable > intervalLimitMillis) {
-                lastAcceptTimestamps = new Hashtable<>(lastAcceptTimestamps.entrySet()
-                        .stream().filter(e ->
-                                System.currentTimeMillis() - e.getValue() < intervalLimitMillis)
-                        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
-                lastCleanupTable = System.currentTimeMillis();
-            }
 
             LOGGER.info(this + " - accept connection from " + socket.getInetAddress());
             try {
@@ -165,6 +166,8 @@ public class ServerDaemon implements ClientCommandHandler {
         interServerService.stop();
         subscriptionService.stop();
         IOUtils.closeQuietly(serverSocket);
+        if (nioServer != null)
+            nioServer.stop();
     }
 
     /**
@@ -182,6 +185,25 @@ public class ServerDaemon implements ClientCommandHandler {
         return newResource;
     }
 
+    /**
+     * 64-bit FNV-1a hash of (ezserver, channel, uri), identify a resource
+     * across servers on relayed queries.
+     */
+    private static long fingerprint(Resource resource) {
+        long hash = 0xcbf29ce484222325L;
+        String[] fields = {resource.getEzserver(), resource.getChannel(), resource.getUri()};
+        for (String field : fields) {
+            if (field != null)
+                for (int i = 0; i < field.length(); i++) {
+                    hash ^= field.charAt(i);
+                    hash *= 0x100000001b3L;
+                }
+            // Separator, so that ("ab", "c") differs from ("a", "bc").
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
     /**
      * Get resource from command. That resource will have a legal URI and
      * non-"*" owner. Resource's URI will be canonicalized.
@@ -229,12 +251,10 @@ public class ServerDaemon implements ClientCommandHandler {
             throw new CommandHandleException("invalid resource");
         }
 
-        synchronized (resourceStorage) {
-            if (!resourceStorage.updateResource(resource))
-                throw new CommandHandleException("cannot publish resource");
-            LOGGER.fine(String.format("new resource (%s, %s) published.",
-                    resource.getChannel(), uri));
-        }
+        if (!resourceStorage.updateResource(resource))
+            throw new CommandHandleException("cannot publish resource");
+        LOGGER.fine(String.format("new resource (%s, %s) published.",
+                resource.getChannel(), uri));
         subscriptionService.notifyUpdatedResource(copyAsAnonymousResource(resource));
     }
 
@@ -242,14 +262,10 @@ public class ServerDaemon implements ClientCommandHandler {
     public void doRemove(Remove cmd) throws CommandHandleException {
         Resource resource = verifyThenGetResource(cmd);
         URI uri = resource.getNormalizedUri();
-        synchronized (resourceStorage) {
-            Resource oldResource = resourceStorage.get(resource.getChannel(), uri);
-            if (oldResource == null || !oldResource.getOwner().equals(resource.getOwner()))
-                throw new CommandHandleException("cannot remove resource");
-            resourceStorage.remove(resource.getChannel(), uri);
-            LOGGER.fine(String.format("resource (%s, %s) removed.",
-                    resource.getChannel(), uri));
-        }
+        if (!resourceStorage.removeResource(resource))
+            throw new CommandHandleException("cannot remove resource");
+        LOGGER.fine(String.format("resource (%s, %s) removed.",
+                resource.getChannel(), uri));
     }
 
     @Override
@@ -273,54 +289,64 @@ public class ServerDaemon implements ClientCommandHandler {
             throw new CommandHandleException("invalid resource");
         }
 
-        synchronized (resourceStorage) {
-            if (!resourceStorage.updateResource(resource))
-                throw new CommandHandleException("cannot share resource");
-            LOGGER.fine(String.format("new resource (%s, %s) shared.",
-                    resource.getChannel(), uri));
-        }
+        if (!resourceStorage.updateResource(resource))
+            throw new CommandHandleException("cannot share resource");
+        LOGGER.fine(String.format("new resource (%s, %s) shared.",
+                resource.getChannel(), uri));
         subscriptionService.notifyUpdatedResource(resource);
     }
 
     @Override
-    public int doQuery(Query cmd, Consumer<Void> ok, Consumer<Resource> consumer)
+    public ResultSize doQuery(Query cmd, Consumer<Void> ok, Consumer<Resource> consumer)
             throws CommandHandleException {
         Resource template = verifyThenGetTemplate(cmd);
+        int relayTimeout = options.getRelayTimeout();
+        if (cmd.getTimeout() != null) {
+            if (cmd.getTimeout() <= 0)
+                throw new CommandHandleException("invalid timeout");
+            // Client may wait less, but not more.
+            relayTimeout = Math.min(relayTimeout, cmd.getTimeout());
+        }
         // Tell caller the command is valid and we are ready to send resources.
         ok.accept(null);
 
         Counter<Resource> counter = new Counter<>();
+        // Same resource may come from replicas, or from another alias of
+        // us, send it once. Only called under fan-out lock of queryAll().
+        LongHashSet sent = new LongHashSet();
+        Predicate<Resource> firstSeen = r -> sent.add(fingerprint(r));
         // Return local resource first.
         // If client do not want wait too long and disconnect in advance,
         // this ensure them do not miss local resources.
-        Set<Resource> localResources;
-        synchronized (resourceStorage) {
-            // Collect results to prevent slow client holding the lock.
-            localResources = resourceStorage.templateQuery(template)
-                    .collect(Collectors.toSet());
-        }
-        localResources.stream()
+        // Resources are streamed one by one from a storage snapshot,
+        // slow client won't hold any lock or a whole result on memory.
+        resourceStorage.templateQuery(template)
                 .map(this::copyAsAnonymousResource)
+                .filter(firstSeen)
                 .map(counter::count)
                 .forEach(consumer);
-        if (cmd.isRelay()) {
-            // Although ignore query with non-blank channel/owner is more reasonable,
-            // the specification enforce to set them empty and relay.
-            // We follow the specification here.
-            Resource anonymousTemplate = new Resource(template);
-            anonymousTemplate.setChannel("");
-            anonymousTemplate.setOwner("");
-            Query query = new Query(anonymousTemplate, false);
-            interServerService.queryAll(query, r -> {
-                counter.count(r);
-                consumer.accept(r);
-            });
-        }
-        return counter.getCount();
+        ContentSummary summary = Boolean.TRUE.equals(cmd.getSummary()) ?
+                getContentSummary() : null;
+        if (!cmd.isRelay())
+            return new ResultSize(counter.getCount(), null, null, summary);
+        // Although ignore query with non-blank channel/owner is more reasonable,
+        // the specification enforce to set them empty and relay.
+        // We follow the specification here.
+        Resource anonymousTemplate = new Resource(template);
+        anonymousTemplate.setChannel("");
+        anonymousTemplate.setOwner("");
+        Query query = new Query(anonymousTemplate, false);
+        Pair<Integer, Integer> peers = interServerService.queryAll(query, relayTimeout, r -> {
+            if (!firstSeen.test(r))
+                return;
+            counter.count(r);
+            consumer.accept(r);
+        });
+        return new ResultSize(counter.getCount(), peers.getRight(), peers.getLeft(), summary);
     }
 
     @Override
-    public Pair<Resource, InputStream> doFetch(Fetch cmd) throws CommandHandleException {
+    public Pair<Resource, FileChannel> doFetch(Fetch cmd) throws CommandHandleException {
         Resource template = cmd.getResourceTemplate();
         if (template == null)
             throw new CommandHandleException("missing resourceTemplate");
@@ -329,27 +355,23 @@ public class ServerDaemon implements ClientCommandHandler {
             LOGGER.fine("URI illegal to fetch");
             throw new CommandHandleException("invalid resourceTemplate");
         }
-        Resource resource;
-        synchronized (resourceStorage) {
-            resource = resourceStorage.get(template.getChannel(), uri);
-        }
+        Resource resource = resourceStorage.get(template.getChannel(), uri);
         if (resource == null) {
             LOGGER.fine("resource not found");
             // TODO: can we throw "resource not found" instead?
             throw new CommandHandleException("invalid resourceTemplate");
         }
         resource = copyAsAnonymousResource(resource);
-        InputStream inputStream;
+        FileChannel file;
         try {
-            File file = new File(uri);
-            resource.setResourceSize(file.length());
-            inputStream = new BufferedInputStream(new FileInputStream(file));
-        } catch (FileNotFoundException e) {
+            file = FileChannel.open(Paths.get(uri), StandardOpenOption.READ);
+            resource.setResourceSize(file.size());
+        } catch (IOException | IllegalArgumentException e) {
             LOGGER.warning(String.format("resource (%s, %s) file not found",
                     template.getChannel(), uri));
             throw new CommandHandleException("file not found on server");
         }
-        return Pair.of(resource, inputStream);
+        return Pair.of(resource, file);
     }
 
     @Override
@@ -362,9 +384,39 @@ public class ServerDaemon implements ClientCommandHandler {
     }
 
     @Override
-    public Subscriber doSubscription(Subscribe cmd, Consumer<Resource> consumer)
-            throws CommandHandleException {
-        Subscriber subscriber = subscriptionService.addSubscriber(consumer);
+    public ContentSummary getContentSummary() {
+        synchronized (summaryLock) {
+            long now = System.currentTimeMillis();
+            if (summary == null || now - summaryBuiltAt > SUMMARY_MAX_AGE_MILLIS) {
+                // Template of public channel matches everything on it.
+                summary = ContentSummary.of(resourceStorage.templateQuery(new Resource()));
+                summaryBuiltAt = now;
+            }
+            return summary;
+        }
+    }
+
+    @Override
+    public void doPing(Ping cmd) throws CommandHandleException {
+        Server target = cmd.getTarget();
+        if (target == null)
+            return;
+        if (!target.isValid())
+            throw new CommandHandleException("invalid target");
+        if (!interServerService.probe(target))
+            throw new CommandHandleException("target unreachable");
+    }
+
+    @Override
+    public String getMembershipEpoch() {
+        return interServerService.getEpoch();
+    }
+
+    @Override
+    public Subscriber doSubscription(Subscribe cmd, Consumer<List<Notification>> consumer,
+                                     Runnable onOverflow) throws CommandHandleException {
+        Subscriber subscriber = subscriptionService.addSubscriber(
+                consumer, onOverflow, cmd.getServer());
         try {
             doSubscription(cmd, subscriber);
             return subscriber;
@@ -1,5 +1,10 @@
 package EZShare.server;
 
+import EZShare.server.subscription.OverflowPolicy;
+
+import java.io.File;
+import java.util.List;
+
 /**
  * Store all options for running a server.
  * Created on 2017/3/22.
@@ -11,19 +16,46 @@ public class ServerOptions {
     private final int port;
     private final int sport;
     private final String secret;
+    private final StorageBackend storageBackend;
+    private final File storageDirectory;
+    private final ConnectionEngine connectionEngine;
+    private final ThreadMode threadMode;
+    private final List<String> tlsProtocols;
+    private final List<String> tlsCipherSuites;
+    private final int relayTimeout;
+    private final OverflowPolicy overflowPolicy;
+    private final int subscriberQueueSize;
 
     public ServerOptions(String hostname,
                          double connectionIntervalLimit,
                          int exchangeInterval,
                          int port,
                          int sport,
-                         String secret) {
+                         String secret,
+                         StorageBackend storageBackend,
+                         File storageDirectory,
+                         ConnectionEngine connectionEngine,
+                         ThreadMode threadMode,
+                         List<String> tlsProtocols,
+                         List<String> tlsCipherSuites,
+                         int relayTimeout,
+                         OverflowPolicy overflowPolicy,
+                         int subscriberQueueSize) {
         this.hostname = hostname;
         this.connectionIntervalLimit = connectionIntervalLimit;
         this.exchangeInterval = exchangeInterval;
         this.port = port;
         this.sport = sport;
         this.secret = secret;
+        this.storageBackend = storageBackend;
+        this.storageDirectory = storageDirectory;
+        this.connectionEngine = connectionEngine;
+        this.threadMode = threadMode;
+        this.tlsProtocols = tlsProtocols;
+        this.tlsCipherSuites = tlsCipherSuites;
+        this.relayTimeout = relayTimeout;
+        this.overflowPolicy = overflowPolicy;
+        this.subscriberQueueSize = subscriberQueueSize;
     }
 
     String getHostname() {
@@ -49,4 +81,55 @@ public class ServerOptions {
     String getSecret() {
         return secret;
     }
+
+    public StorageBackend getStorageBackend() {
+        return storageBackend;
+    }
+
+    public File getStorageDirectory() {
+        return storageDirectory;
+    }
+
+    ConnectionEngine getConnectionEngine() {
+        return connectionEngine;
+    }
+
+    ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    /**
+     * @return TLS protocols to enable, or null for JVM defaults.
+     */
+    public List<String> getTlsProtocols() {
+        return tlsProtocols;
+    }
+
+    /**
+     * @return TLS cipher suites to enable, or null for JVM defaults.
+     */
+    public List<String> getTlsCipherSuites() {
+        return tlsCipherSuites;
+    }
+
+    /**
+     * @return milliseconds to wait for other servers on relayed query.
+     */
+    int getRelayTimeout() {
+        return relayTimeout;
+    }
+
+    /**
+     * @return what to do when a subscriber's queue is full.
+     */
+    OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return resources queued for one subscriber at most.
+     */
+    int getSubscriberQueueSize() {
+        return subscriberQueueSize;
+    }
 }
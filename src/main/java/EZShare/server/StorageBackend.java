@@ -0,0 +1,37 @@
+package EZShare.server;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Where the server keeps its resources.
+ * Created on 2026/10/18.
+ */
+public enum StorageBackend {
+    /**
+     * Keep on memory only, lost on restart.
+     */
+    MEMORY {
+        @Override
+        public ResourceStorage open(File directory) {
+            return new ConcurrentResourceStorage();
+        }
+    },
+    /**
+     * Keep on memory, and persist on disk with journal & snapshots.
+     */
+    JOURNAL {
+        @Override
+        public ResourceStorage open(File directory) throws IOException {
+            return new JournalResourceStorage(directory, new ConcurrentResourceStorage());
+        }
+    };
+
+    /**
+     * Create a storage of this backend.
+     * @param directory for backends that store data on disk.
+     * @return the storage, with resources loaded.
+     * @throws IOException if fail to load resources.
+     */
+    public abstract ResourceStorage open(File directory) throws IOException;
+}
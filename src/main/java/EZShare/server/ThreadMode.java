@@ -0,0 +1,82 @@
+package EZShare.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * What kind of threads run blocking tasks of the server: client connections,
+ * relayed queries, subscription delivery and relay connections.
+ *
+ * Created on 2026/10/18.
+ */
+public enum ThreadMode {
+    /**
+     * Platform threads, on bounded pools where the task may flood.
+     */
+    PLATFORM {
+        @Override
+        public ExecutorService newCachedPool() {
+            return Executors.newCachedThreadPool();
+        }
+
+        @Override
+        public ExecutorService newFixedPool(int threads) {
+            return Executors.newFixedThreadPool(threads);
+        }
+    },
+    /**
+     * A new virtual thread for each task, no pool and no bound.
+     * Requires Java 21 or later.
+     */
+    VIRTUAL {
+        @Override
+        public ExecutorService newCachedPool() {
+            try {
+                return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new UnsupportedOperationException("virtual threads not available", e);
+            }
+        }
+
+        @Override
+        public ExecutorService newFixedPool(int threads) {
+            return newCachedPool();
+        }
+
+        @Override
+        public boolean isSupported() {
+            return newVirtualThreadPerTaskExecutor != null;
+        }
+    };
+
+    // Still compile on Java 8, lookup the factory in runtime.
+    private final static Method newVirtualThreadPerTaskExecutor;
+    static {
+        Method method;
+        try {
+            method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            method = null;
+        }
+        newVirtualThreadPerTaskExecutor = method;
+    }
+
+    /**
+     * @return executor for tasks that have no limit on its number.
+     */
+    public abstract ExecutorService newCachedPool();
+
+    /**
+     * @param threads max number of platform threads.
+     * @return executor for tasks that should be limited on platform threads.
+     */
+    public abstract ExecutorService newFixedPool(int threads);
+
+    /**
+     * @return whether this mode can run on current JVM.
+     */
+    public boolean isSupported() {
+        return true;
+    }
+}
@@ -0,0 +1,164 @@
+package EZShare.server.subscription;
+
+import EZShare.entities.Notification;
+import EZShare.entities.Resource;
+import EZShare.networking.ResourceBatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Resources waiting to be sent to one subscriber, so that a slow or
+ * stalled subscriber only delays itself, not others nor the delivery pool.
+ *
+ * Resources are offered from any thread without blocking, and written out
+ * by one writer task at a time, which is started on demand and ends when
+ * the queue is empty. The writer takes everything queued, up to
+ * MAX_BATCH, at once: a lone resource is written alone without delay,
+ * while a burst that piles up during a write goes out in batches. At most
+ * capacity resources are kept, see {@link OverflowPolicy} for what happens
+ * beyond that.
+ *
+ * Created on 2026/10/18.
+ */
+class OutboundQueue {
+    private final static Logger LOGGER = Logger.getLogger(OutboundQueue.class.getName());
+    private final static int MAX_BATCH = ResourceBatcher.MAX_RESOURCES;
+
+    private final Consumer<List<Notification>> consumer;
+    private final Runnable onOverflow;
+    private final Executor writers;
+    private final SubscriptionStats stats;
+    private final OverflowPolicy policy;
+    private final int capacity;
+    private final ConcurrentLinkedQueue<Notification> queue = new ConcurrentLinkedQueue<>();
+    // Key -> latest resource of the key, on COALESCE only. The queue keeps
+    // the first resource of each key as a placeholder.
+    private final ConcurrentHashMap<String, Notification> latest;
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean writing = new AtomicBoolean();
+    private volatile boolean closed;
+
+    /**
+     * @param consumer that send resources to the subscriber, may block.
+     * @param onOverflow close the connection, on DISCONNECT.
+     */
+    OutboundQueue(Consumer<List<Notification>> consumer, Runnable onOverflow, Executor writers,
+                  SubscriptionStats stats) {
+        this.consumer = consumer;
+        this.onOverflow = onOverflow;
+        this.writers = writers;
+        this.stats = stats;
+        this.policy = stats.getPolicy();
+        this.capacity = stats.getQueueCapacity();
+        latest = policy == OverflowPolicy.COALESCE ? new ConcurrentHashMap<>() : null;
+        stats.add(this);
+    }
+
+    int getDepth() {
+        return depth.get();
+    }
+
+    void offer(Notification notification) {
+        if (closed)
+            return;
+        if (latest != null && latest.put(key(notification), notification) != null) {
+            stats.coalesced.increment();
+            return;
+        }
+        if (depth.incrementAndGet() > capacity && !overflow())
+            return;
+        queue.add(notification);
+        if (writing.compareAndSet(false, true))
+            writers.execute(this::write);
+    }
+
+    /**
+     * Called when the queue is full.
+     * @return true if the new resource should be queued.
+     */
+    private boolean overflow() {
+        if (policy == OverflowPolicy.DISCONNECT) {
+            LOGGER.info("subscriber too slow, disconnect");
+            stats.disconnected.increment();
+            close();
+            onOverflow.run();
+            return false;
+        }
+        Notification oldest = queue.poll();
+        if (oldest != null) {
+            depth.decrementAndGet();
+            if (latest != null)
+                latest.remove(key(oldest));
+            stats.dropped.increment();
+        }
+        return true;
+    }
+
+    private void write() {
+        do {
+            List<Notification> notifications;
+            while (!closed && !(notifications = takeBatch()).isEmpty()) {
+                try {
+                    consumer.accept(notifications);
+                } catch (RuntimeException e) {
+                    // Connection is broken, and will be closed by its reader.
+                    LOGGER.fine("fail to send to subscriber: " + e);
+                    close();
+                    return;
+                }
+                stats.delivered.add(notifications.size());
+            }
+            writing.set(false);
+        } while (!closed && !queue.isEmpty() && writing.compareAndSet(false, true));
+    }
+
+    private List<Notification> takeBatch() {
+        List<Notification> notifications = new ArrayList<>();
+        Notification notification;
+        while (notifications.size() < MAX_BATCH && (notification = take()) != null)
+            notifications.add(notification);
+        return notifications;
+    }
+
+    private Notification take() {
+        Notification notification;
+        do {
+            notification = queue.poll();
+            if (notification == null)
+                return null;
+            depth.decrementAndGet();
+            if (latest != null)
+                notification = latest.remove(key(notification));
+        } while (notification == null);
+        return notification;
+    }
+
+    /**
+     * Resources of the same channel & URI from the same server replace
+     * each other on COALESCE.
+     */
+    private static String key(Notification notification) {
+        Resource resource = notification.getResource();
+        return resource.getEzserver() + '\0' + resource.getChannel() + '\0' + resource.getUri();
+    }
+
+    /**
+     * Drop queued resources and accept no more.
+     */
+    void close() {
+        closed = true;
+        stats.remove(this);
+        queue.clear();
+        if (latest != null)
+            latest.clear();
+        depth.set(0);
+    }
+}
@@ -0,0 +1,31 @@
+package EZShare.server.subscription;
+
+/**
+ * What to do when a subscriber doesn't keep up, and its queue of resources
+ * to send is full.
+ * Created on 2026/10/18.
+ */
+public enum OverflowPolicy {
+    /**
+     * Drop the oldest queued resource to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Keep only the latest one of resources with the same channel & URI
+     * in the queue, drop the oldest if still full.
+     */
+    COALESCE,
+    /**
+     * Close the connection to the subscriber.
+     */
+    DISCONNECT;
+
+    /**
+     * @param name as in command line, e.g. "drop-oldest".
+     * @return the policy.
+     * @throws IllegalArgumentException if no such policy.
+     */
+    public static OverflowPolicy of(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+}
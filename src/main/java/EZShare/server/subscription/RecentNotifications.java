@@ -0,0 +1,30 @@
+package EZShare.server.subscription;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * IDs of notifications handled lately, to drop ones that come again over
+ * another path. Bounded, forgotten in the order first seen (FIFO), not
+ * the order last seen.
+ * Thread-safe.
+ *
+ * Created on 2026/10/18.
+ */
+class RecentNotifications {
+    private final static int CAPACITY = 16 * 1024;
+
+    private final LinkedHashMap<String, Boolean> ids = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    /**
+     * @return true if the ID is not seen lately, it's remembered now.
+     */
+    synchronized boolean add(String id) {
+        return ids.put(id, Boolean.TRUE) == null;
+    }
+}
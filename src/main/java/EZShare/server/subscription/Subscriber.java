@@ -1,27 +1,39 @@
 package EZShare.server.subscription;
 
+import EZShare.entities.Notification;
 import EZShare.entities.Resource;
+import EZShare.entities.TemplateMatcher;
 
+import java.util.ArrayList;
 import java.util.Hashtable;
-import java.util.function.Consumer;
 
 /**
  * One subscriber with one or more its subscriptions.
+ * Subscriptions are also put on {@link SubscriptionIndex} for matching.
  * Created by xierch on 2017/5/10.
  */
 public class Subscriber {
     private final RelayService relayService;
-    private final Consumer<Resource> subscriber;
+    private final SubscriptionIndex index;
+    private final OutboundQueue outbound;
+    // Epoch if the subscriber is a server, or null.
+    private final String server;
     private final Hashtable<String, Subscription> subscriptions = new Hashtable<>();
 
-    Subscriber(RelayService relayService, Consumer<Resource> subscriber) {
+    Subscriber(RelayService relayService, SubscriptionIndex index, OutboundQueue outbound,
+               String server) {
         this.relayService = relayService;
-        this.subscriber = subscriber;
+        this.index = index;
+        this.outbound = outbound;
+        this.server = server;
     }
 
     public void subscribe(String id, Resource template, boolean relay) {
         Subscription subscription = new Subscription(template);
-        subscriptions.put(id, subscription);
+        Subscription replaced = subscriptions.put(id, subscription);
+        if (replaced != null)
+            cancel(replaced);
+        index.add(subscription);
         // There are two IDs on relayed subscriptions,
         // the "id" is one that client sent to us. And the "relayId" is one that
         // we sent to other servers. This is returned by RelayService and used by
@@ -32,40 +44,63 @@ public class Subscriber {
 
     public void unsubscribe(String id) {
         Subscription s = subscriptions.remove(id);
-        if (s.relayId != null)
-            relayService.unsubscribe(s.relayId);
+        if (s != null)
+            cancel(s);
     }
 
     public void unsubscribeAll() {
-        subscriptions.keySet().forEach(this::unsubscribe);
+        new ArrayList<>(subscriptions.keySet()).forEach(this::unsubscribe);
     }
 
-    private boolean isDeliverable(Resource resource) {
-        return subscriptions.values().stream()
-                .map(Subscription::getTemplate)
-                .anyMatch(resource::matchWithTemplate);
+    private void cancel(Subscription subscription) {
+        index.remove(subscription);
+        if (subscription.relayId != null)
+            relayService.unsubscribe(subscription.relayId);
     }
 
-    void tryDelivery(Resource resource) {
-        if (!isDeliverable(resource))
+    /**
+     * Unsubscribe all, and drop resources not sent yet.
+     * Must be called when the connection closed.
+     */
+    public void close() {
+        unsubscribeAll();
+        outbound.close();
+    }
+
+    /**
+     * Queue a resource that matched by {@link SubscriptionIndex} to send,
+     * unless the subscriber is a server it came from.
+     */
+    void deliver(Notification notification) {
+        if (server != null && notification.hasPassed(server))
             return;
-        subscriber.accept(resource);
+        outbound.offer(notification);
     }
 
     public boolean isEmpty() {
         return subscriptions.isEmpty();
     }
 
-    private static class Subscription {
-        Resource template;
+    class Subscription {
+        final Resource template;
+        final TemplateMatcher matcher;
         String relayId;
 
         Subscription(Resource template) {
             this.template = template;
+            matcher = TemplateMatcher.compile(template);
         }
 
         Resource getTemplate() {
             return template;
         }
+
+        TemplateMatcher getMatcher() {
+            return matcher;
+        }
+
+        Subscriber getSubscriber() {
+            return Subscriber.this;
+        }
     }
 }
@@ -0,0 +1,135 @@
+package EZShare.server.subscription;
+
+import EZShare.entities.Resource;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Subscriptions of all subscribers, indexed by what a resource must have
+ * to match their templates, so that a published resource is only tested
+ * with subscriptions that could match it.
+ *
+ * Subscriptions are grouped by channel, then put into one bucket by the
+ * most selective field of its template: URI, owner, a tag, or none
+ * (wildcard). A resource looks up the bucket of its URI, of its owner,
+ * of each of its tags, and the wildcard bucket of its channel. Candidates
+ * are still tested with the full template.
+ *
+ * Thread-safe.
+ *
+ * Created on 2026/10/18.
+ */
+class SubscriptionIndex {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // Guarded by lock.
+    private final HashMap<String, ChannelBuckets> channels = new HashMap<>();
+
+    private static class ChannelBuckets {
+        final HashMap<String, Set<Subscriber.Subscription>> byUri = new HashMap<>();
+        final HashMap<String, Set<Subscriber.Subscription>> byOwner = new HashMap<>();
+        final HashMap<String, Set<Subscriber.Subscription>> byTag = new HashMap<>();
+        final Set<Subscriber.Subscription> wildcard = new HashSet<>();
+
+        /**
+         * @return the bucket that the template goes to, or null if not
+         * created yet.
+         */
+        Set<Subscriber.Subscription> bucketOf(Resource template, boolean create) {
+            if (!template.getUri().isEmpty())
+                return bucketIn(byUri, template.getUri(), create);
+            if (!template.getOwner().isEmpty())
+                return bucketIn(byOwner, template.getOwner(), create);
+            if (!template.getTags().isEmpty())
+                return bucketIn(byTag, template.getTags().get(0).toLowerCase(), create);
+            return wildcard;
+        }
+
+        private static Set<Subscriber.Subscription> bucketIn(
+                HashMap<String, Set<Subscriber.Subscription>> buckets, String key, boolean create) {
+            return create ? buckets.computeIfAbsent(key, k -> new HashSet<>()) : buckets.get(key);
+        }
+
+        /**
+         * Drop empty buckets, so that the maps don't grow with every
+         * template ever subscribed.
+         */
+        void compact(Resource template) {
+            if (!template.getUri().isEmpty())
+                byUri.remove(template.getUri(), Collections.emptySet());
+            else if (!template.getOwner().isEmpty())
+                byOwner.remove(template.getOwner(), Collections.emptySet());
+            else if (!template.getTags().isEmpty())
+                byTag.remove(template.getTags().get(0).toLowerCase(), Collections.emptySet());
+        }
+
+        boolean isEmpty() {
+            return byUri.isEmpty() && byOwner.isEmpty() && byTag.isEmpty() && wildcard.isEmpty();
+        }
+    }
+
+    void add(Subscriber.Subscription subscription) {
+        Resource template = subscription.getTemplate();
+        lock.writeLock().lock();
+        try {
+            channels.computeIfAbsent(template.getChannel(), c -> new ChannelBuckets())
+                    .bucketOf(template, true).add(subscription);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(Subscriber.Subscription subscription) {
+        Resource template = subscription.getTemplate();
+        lock.writeLock().lock();
+        try {
+            ChannelBuckets buckets = channels.get(template.getChannel());
+            if (buckets == null)
+                return;
+            Set<Subscriber.Subscription> bucket = buckets.bucketOf(template, false);
+            if (bucket == null || !bucket.remove(subscription))
+                return;
+            buckets.compact(template);
+            if (buckets.isEmpty())
+                channels.remove(template.getChannel());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param resource published.
+     * @return subscribers that have any subscription matches the resource.
+     */
+    Set<Subscriber> match(Resource resource) {
+        List<Subscriber.Subscription> candidates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            ChannelBuckets buckets = channels.get(resource.getChannel());
+            if (buckets == null)
+                return Collections.emptySet();
+            addAll(candidates, buckets.byUri.get(resource.getUri()));
+            addAll(candidates, buckets.byOwner.get(resource.getOwner()));
+            if (!buckets.byTag.isEmpty())
+                for (String tag : resource.getTags())
+                    addAll(candidates, buckets.byTag.get(tag.toLowerCase()));
+            candidates.addAll(buckets.wildcard);
+        } finally {
+            lock.readLock().unlock();
+        }
+        // Match without lock, a subscriber may have several matched.
+        Set<Subscriber> subscribers = new HashSet<>();
+        for (Subscriber.Subscription subscription : candidates)
+            if (!subscribers.contains(subscription.getSubscriber())
+                    && subscription.getMatcher().matches(resource))
+                subscribers.add(subscription.getSubscriber());
+        return subscribers;
+    }
+
+    private static void addAll(List<Subscriber.Subscription> candidates,
+                               Set<Subscriber.Subscription> bucket) {
+        if (bucket != null)
+            candidates.addAll(bucket);
+    }
+}
@@ -2,94 +2,288 @@ package EZShare.server.subscription;
 
 import EZShare.entities.*;
 import EZShare.networking.EZInputOutput;
+import EZShare.networking.Features;
+import EZShare.networking.HelloRejectedException;
 import EZShare.server.ServerDaemon;
-import com.fasterxml.jackson.databind.JsonMappingException;
+import EZShare.server.ThreadMode;
+import com.fasterxml.jackson.core.JsonProcessingException;
 
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 /**
+ * Relay subscriptions to other servers.
+ *
+ * Local relayed subscriptions share upstream ones: each distinct template
+ * has one upstream, and only those not covered by another (see
+ * {@link TemplateMatcher#covers}) are subscribed with other servers. A new
+ * template takes over subscribed ones that it covers, which are kept as
+ * its children. Once no local subscription refers to an upstream, it's
+ * unsubscribed, and its children are subscribed again unless covered by
+ * another. So other servers see one subscription per distinct interest,
+ * no matter how many local clients hold it, and never one broader than
+ * what local clients currently ask for. Resources received are matched
+ * with all local subscriptions anyway.
+ *
+ * Servers that support NOTIFICATION are told who we are on SUBSCRIBE, so
+ * that they don't send back notifications passed through us, and send
+ * notifications instead of bare resources.
+ *
+ * Connections closed by other servers, e.g. on idle timeout, are made
+ * again after a while, as long as the server is on the list.
+ *
  * Created on 2017/5/10.
  */
 class SubscriptionRelayService implements RelayService {
     private final static Logger LOGGER = Logger.getLogger(ServerDaemon.class.getName());
+    // Longer than the default connection interval limit of servers.
+    private final static long RECONNECT_DELAY_MILLIS = 2 * 1000;
 
     final private Consumer<Resource> updatedResourceConsumer;
+    final private Consumer<Notification> notificationConsumer;
+    // Epoch of us, see Notification.
+    final private String localServer;
     final private Hashtable<Server, EZInputOutput> connections = new Hashtable<>();
+    // Upstream ID -> SUBSCRIBE sent to other servers.
     final private Hashtable<String, Subscribe> subscriptions = new Hashtable<>();
+    // Subscribed with other servers, guarded by this.
+    final private List<Upstream> upstreams = new ArrayList<>();
+    // Relay ID -> upstream of its template, guarded by this.
+    final private Map<String, Upstream> relays = new HashMap<>();
     final private boolean secure;
-    // TODO: share thread pool with SubscriptionService
-    final private ExecutorService executorService = Executors.newCachedThreadPool();
-    private Set<Server> servers = new HashSet<>();
+    final private ExecutorService executorService;
+    final private Set<Server> servers = ConcurrentHashMap.newKeySet();
 
-    private boolean isRunning = true;
+    private volatile boolean isRunning = true;
 
-    SubscriptionRelayService(Consumer<Resource> updatedResourceConsumer, boolean isSecure) {
+    private static class Upstream {
+        final Subscribe subscribe;
+        final TemplateMatcher matcher;
+        // Local relay IDs of this template.
+        final Set<String> relayIds = new HashSet<>();
+        // Upstreams covered by this, not subscribed while this is.
+        final List<Upstream> children = new ArrayList<>();
+
+        Upstream(Resource template) {
+            subscribe = new Subscribe(template, false);
+            matcher = TemplateMatcher.compile(template);
+        }
+
+        boolean isSameAs(TemplateMatcher other) {
+            return matcher.covers(other) && other.covers(matcher);
+        }
+
+        /**
+         * @return this or the one among its descendants of the same
+         * template, or null if none.
+         */
+        Upstream find(TemplateMatcher other) {
+            if (isSameAs(other))
+                return this;
+            if (!matcher.covers(other))
+                return null;
+            for (Upstream child : children) {
+                Upstream found = child.find(other);
+                if (found != null)
+                    return found;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param updatedResourceConsumer resources from servers without
+     *                                NOTIFICATION.
+     * @param notificationConsumer notifications from other servers.
+     */
+    SubscriptionRelayService(Consumer<Resource> updatedResourceConsumer,
+                             Consumer<Notification> notificationConsumer, String localServer,
+                             boolean isSecure, ThreadMode threadMode) {
         this.updatedResourceConsumer = updatedResourceConsumer;
+        this.notificationConsumer = notificationConsumer;
+        this.localServer = localServer;
         secure = isSecure;
+        executorService = threadMode.newCachedPool();
     }
 
     @Override
-    public String subscribe(Resource template) {
-        Subscribe subscribe = new Subscribe(template, false);
-        subscriptions.put(subscribe.getId(), subscribe);
-        connections.values().forEach(server -> {
-            try {
-                server.sendJSON(subscribe);
-            } catch (IOException e) {
-                LOGGER.fine(String.format(
-                        "fail to subscribe with %s: %s", server, e));
+    synchronized public String subscribe(Resource template) {
+        String relayId = UUID.randomUUID().toString();
+        TemplateMatcher matcher = TemplateMatcher.compile(template);
+        Upstream upstream = upstreams.stream()
+                .map(u -> u.find(matcher))
+                .filter(Objects::nonNull)
+                .findFirst().orElse(null);
+        if (upstream == null) {
+            upstream = new Upstream(template);
+            addUpstream(upstream);
+            if (connections.isEmpty() && !servers.isEmpty())
+                // we're the first one to subscribe.
+                connectWithAllServers();
+        } else {
+            LOGGER.fine("relayed subscription shares an upstream one");
+        }
+        upstream.relayIds.add(relayId);
+        relays.put(relayId, upstream);
+        return relayId;
+    }
+
+    /**
+     * Put under an upstream that covers it, or subscribe it and take over
+     * those it covers.
+     */
+    private void addUpstream(Upstream upstream) {
+        for (Upstream other : upstreams) {
+            if (other.matcher.covers(upstream.matcher)) {
+                addChild(other, upstream);
+                return;
             }
-        });
-        if (connections.isEmpty() && !servers.isEmpty())
-            // we're the first one to subscribe.
-            connectWithAllServers();
-        return subscribe.getId();
+        }
+        upstreams.add(upstream);
+        subscriptions.put(upstream.subscribe.getId(), upstream.subscribe);
+        sendToAll(upstream.subscribe);
+        // Those covered are redundant now, unsubscribe them after the new
+        // one is sent, so that nothing is missed in between.
+        Iterator<Upstream> iterator = upstreams.iterator();
+        while (iterator.hasNext()) {
+            Upstream covered = iterator.next();
+            if (covered == upstream || !upstream.matcher.covers(covered.matcher))
+                continue;
+            iterator.remove();
+            upstream.children.add(covered);
+            subscriptions.remove(covered.subscribe.getId());
+            sendToAll(new Unsubscribe(covered.subscribe.getId()));
+        }
+    }
+
+    /**
+     * Put as a child of the parent, or of a child of it that covers it.
+     */
+    private static void addChild(Upstream parent, Upstream upstream) {
+        for (Upstream child : parent.children) {
+            if (child.matcher.covers(upstream.matcher)) {
+                addChild(child, upstream);
+                return;
+            }
+        }
+        parent.children.add(upstream);
     }
 
     @Override
-    public void unsubscribe(String relayId) {
-        subscriptions.remove(relayId);
+    synchronized public void unsubscribe(String relayId) {
+        Upstream upstream = relays.remove(relayId);
+        if (upstream == null)
+            return;
+        upstream.relayIds.remove(relayId);
+        if (!upstream.relayIds.isEmpty())
+            return;
+        if (!upstreams.remove(upstream)) {
+            // Not subscribed, its children go to its parent.
+            Upstream parent = findParent(upstreams, upstream);
+            if (parent != null) {
+                parent.children.remove(upstream);
+                parent.children.addAll(upstream.children);
+            }
+            return;
+        }
+        // Subscribe the children before, so that nothing is missed in
+        // between.
+        upstream.children.forEach(this::addUpstream);
+        subscriptions.remove(upstream.subscribe.getId());
+        sendToAll(new Unsubscribe(upstream.subscribe.getId()));
+    }
+
+    private static Upstream findParent(List<Upstream> candidates, Upstream upstream) {
+        for (Upstream candidate : candidates) {
+            if (candidate.children.contains(upstream))
+                return candidate;
+            if (candidate.matcher.covers(upstream.matcher)) {
+                Upstream parent = findParent(candidate.children, upstream);
+                if (parent != null)
+                    return parent;
+            }
+        }
+        return null;
+    }
+
+    private void sendToAll(Command command) {
         connections.values().forEach(server -> {
             try {
-                server.sendJSON(new Unsubscribe(relayId));
+                server.sendJSON(command instanceof Subscribe ?
+                        withLocalServer(server, (Subscribe) command) : command);
             } catch (IOException e) {
-                // ignore, no need to unsubscribe if connection closed.
+                // ignore, the connection will be closed by its reader.
+                LOGGER.fine(String.format(
+                        "fail to send %s to %s: %s", command.getCMD(), server, e));
             }
         });
     }
 
-    void updateServerList(Set<Server> servers) {
-        this.servers = servers;
+    private Subscribe withLocalServer(EZInputOutput io, Subscribe subscribe) {
+        return io.getFeatures().contains(Features.NOTIFICATION) ?
+                subscribe.fromServer(localServer) : subscribe;
+    }
+
+    /**
+     * Connect with added servers only, and disconnect from removed ones.
+     */
+    void updateServerList(Set<Server> added, Set<Server> removed) {
+        servers.removeAll(removed);
+        removed.forEach(server -> {
+            EZInputOutput io = connections.remove(server);
+            if (io != null)
+                io.close();
+        });
+        servers.addAll(added);
         if (!subscriptions.isEmpty())
-            connectWithAllServers();
+            connectWithServers(added);
+    }
+
+    private void connectWithAllServers() {
+        connectWithServers(servers);
     }
 
-    synchronized private void connectWithAllServers() {
+    synchronized private void connectWithServers(Collection<Server> servers) {
         // synchronized: to avoid connect one server twice.
         servers.stream()
-                .filter(s -> !connections.containsKey(s))
+                .filter(s -> this.servers.contains(s) && !connections.containsKey(s))
                 .forEach(this::connectWithNewServer);
     }
 
     private void connectWithNewServer(Server server) {
         EZInputOutput io;
         try {
-            io = new EZInputOutput(server, secure);
+            io = EZInputOutput.connect(server, secure, Features.SUPPORTED);
+        } catch (HelloRejectedException e) {
+            // It rejects another connection from us for a while, connect
+            // without HELLO after that.
+            LOGGER.fine(e.getMessage());
+            reconnectLater(server);
+            return;
         } catch (IOException e) {
             LOGGER.fine(String.format(
                     "fail to connect with server %s: %s ", server, e));
             return;
         }
+        // Under lock of connectWithServers(), no subscription changes
+        // meanwhile.
+        try {
+            for (Subscribe subscribe : subscriptions.values())
+                io.sendJSON(withLocalServer(io, subscribe));
+        } catch (IOException e) {
+            LOGGER.fine(String.format(
+                    "fail to subscribe with server %s: %s ", server, e));
+            io.close();
+            return;
+        }
         connections.put(server, io);
         executorService.submit(() -> {
            try {
-               subscriptions.values().forEach(io::uncheckedSendJSON);
                handleSubscriptionConnection(server, io);
            } catch (EOFException e) {
                LOGGER.fine(String.format(
@@ -99,8 +293,27 @@ class SubscriptionRelayService implements RelayService {
                        "I/O error on handle subscription connection with %s (%s)",
                        server, io));
            } finally {
-               connections.remove(server);
+               connections.remove(server, io);
            }
+           // Closed by the server, or timed out. Not if the server is
+           // removed from the list, or we're stopping.
+           if (isRunning && servers.contains(server))
+               reconnectLater(server);
+        });
+    }
+
+    /**
+     * Connect with the server again after a while, if still needed.
+     */
+    private void reconnectLater(Server server) {
+        executorService.submit(() -> {
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException ignored) {
+                return;
+            }
+            if (isRunning && !subscriptions.isEmpty())
+                connectWithServers(Collections.singleton(server));
         });
     }
 
@@ -108,33 +321,21 @@ class SubscriptionRelayService implements RelayService {
             throws IOException {
         io.setTimeout(0);
         while (isRunning) {
-            // try to read updated resource:
+            Object message;
             try {
-                Resource resource = io.readJSON(Resource.class);
-                updatedResourceConsumer.accept(resource);
-                continue;
-            } catch (JsonMappingException e) {
-                // ignore
-            }
-            // try to read response (success or error)
-            try {
-                Response response = io.readJSON(Response.class);
-                LOGGER.fine(String.format("%s: %s", server, response));
-                continue;
-            } catch (JsonMappingException e) {
-                // ignore
-            }
-            // try to read result size
-            try {
-                ResultSize resultSize = io.readJSON(ResultSize.class);
-                LOGGER.fine(String.format("%s: %s", server, resultSize));
-                continue;
-            } catch (JsonMappingException e) {
-                // ignore
+                message = io.readMessage();
+            } catch (JsonProcessingException e) {
+                message = null;
             }
-            LOGGER.info("unexpected message read from subscription " +
-                    "connection with " + server + ", ignored.");
-            io.discardBuffer();
+            if (message instanceof Notification)
+                notificationConsumer.accept((Notification) message);
+            else if (message instanceof Resource)
+                updatedResourceConsumer.accept((Resource) message);
+            else if (message instanceof Response || message instanceof ResultSize)
+                LOGGER.fine(String.format("%s: %s", server, message));
+            else
+                LOGGER.info("unexpected message read from subscription " +
+                        "connection with " + server + ", ignored.");
         }
     }
 
@@ -1,56 +1,153 @@
 package EZShare.server.subscription;
 
+import EZShare.entities.Notification;
 import EZShare.entities.Resource;
 import EZShare.entities.Server;
+import EZShare.server.ThreadMode;
 
-import java.util.HashSet;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.logging.Logger;
 
 /**
+ * Matches published resources with subscriptions on a pool of
+ * MAX_THREAD, then queues them on each subscriber's {@link OutboundQueue},
+ * which are written out on another pool.
+ *
+ * Each update is a {@link Notification}, identified by the server where it
+ * was published and a sequence number of that server. Servers are named
+ * by their epochs, not "hostname:port" that may be shared by distinct
+ * servers. Ones relayed by
+ * other servers are dropped if seen lately, or passed through us already,
+ * and are never sent to servers they passed through.
+ *
  * Created on 2017/5/10.
  */
 public class SubscriptionService {
+    private final static Logger LOGGER = Logger.getLogger(SubscriptionService.class.getName());
     private final static int MAX_THREAD = 16;
+    // Drop notifications relayed through more servers, in case of a loop
+    // that recent IDs fail to break.
+    private final static int MAX_HOPS = 16;
 
-    final private Set<Subscriber> subscribers = new HashSet<>();
+    final private SubscriptionIndex index = new SubscriptionIndex();
     final private SubscriptionRelayService relayService;
-    // TODO: share thread pool with ServerDaemon
-    private final ExecutorService executorService = Executors.newFixedThreadPool(MAX_THREAD);
+    private final ExecutorService executorService;
+    private final ExecutorService writers;
+    private final SubscriptionStats stats;
+    private final Server localServer;
+    // Epoch of us, changes on restart.
+    private final String localId;
+    private final AtomicLong sequence = new AtomicLong();
+    private final RecentNotifications recentNotifications = new RecentNotifications();
 
 
-    public SubscriptionService(boolean isSecure) {
-        relayService = new SubscriptionRelayService(this::notifyUpdatedResource, isSecure);
+    /**
+     * @param localServer us, to name the JMX bean.
+     * @param localId epoch of us, to name notifications and us on
+     *                SUBSCRIBE, see {@link EZShare.entities.Notification}.
+     * @param overflowPolicy on a full queue of subscriber.
+     * @param queueCapacity resources queued per subscriber at most.
+     */
+    public SubscriptionService(boolean isSecure, ThreadMode threadMode, Server localServer,
+                               String localId, OverflowPolicy overflowPolicy,
+                               int queueCapacity) {
+        this.localServer = localServer;
+        this.localId = localId;
+        executorService = threadMode.newFixedPool(MAX_THREAD);
+        writers = threadMode.newCachedPool();
+        stats = new SubscriptionStats(overflowPolicy, queueCapacity);
+        relayService = new SubscriptionRelayService(this::notifyUpdatedResource,
+                this::notifyRelayed, localId, isSecure, threadMode);
+        registerMBean();
     }
 
-    public void updateServerList(Set<Server> servers) {
-        relayService.updateServerList(servers);
+    /**
+     * @param added servers to the list.
+     * @param removed servers from the list.
+     */
+    public void updateServerList(Set<Server> added, Set<Server> removed) {
+        relayService.updateServerList(added, removed);
     }
 
-    public Subscriber addSubscriber(Consumer<Resource> consumer) {
-        Subscriber subscriber = new Subscriber(relayService, consumer);
-        subscribers.add(subscriber);
-        return subscriber;
+    /**
+     * @param consumer that send resources to the subscriber, may block.
+     * @param onOverflow close the connection to the subscriber, if it's too
+     *                   slow and the policy is DISCONNECT.
+     * @param server epoch if the subscriber is a server, or null.
+     */
+    public Subscriber addSubscriber(Consumer<List<Notification>> consumer, Runnable onOverflow,
+                                    String server) {
+        return new Subscriber(relayService, index,
+                new OutboundQueue(consumer, onOverflow, writers, stats), server);
     }
 
     public void removeSubscriber(Subscriber subscriber) {
-        subscriber.unsubscribeAll();
-        subscribers.remove(subscriber);
+        subscriber.close();
     }
 
+    /**
+     * Resource published or shared here, or relayed by a server that
+     * doesn't tell notifications apart.
+     */
     public void notifyUpdatedResource(Resource resource) {
-        // TODO: add a queue to avoid blocking when thread pool is full.
+        Notification notification = new Notification(
+                resource, localId, sequence.incrementAndGet(), null);
+        recentNotifications.add(notification.getId());
+        dispatch(notification);
+    }
+
+    private void notifyRelayed(Notification notification) {
+        if (!notification.isValid() || notification.getVia().size() >= MAX_HOPS
+                || notification.hasPassed(localId)
+                || !recentNotifications.add(notification.getId())) {
+            stats.duplicates.increment();
+            return;
+        }
+        dispatch(notification.relayedBy(localId));
+    }
+
+    private void dispatch(Notification notification) {
         executorService.submit(() ->
-            subscribers.forEach(s -> s.tryDelivery(resource))
+            index.match(notification.getResource()).forEach(s -> s.deliver(notification))
         );
     }
 
     public void stop() {
         relayService.stop();
         executorService.shutdownNow();
+        writers.shutdownNow();
+        unregisterMBean();
+    }
+
+    private ObjectName getObjectName() throws MalformedObjectNameException {
+        return new ObjectName("EZShare:type=SubscriptionStats,port=" + localServer.getPort());
+    }
+
+    private void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(stats, SubscriptionStatsMXBean.class, true), getObjectName());
+        } catch (JMException e) {
+            LOGGER.warning("failed to register subscription stats to JMX: " + e);
+        }
+    }
+
+    private void unregisterMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(getObjectName());
+        } catch (JMException e) {
+            LOGGER.fine("failed to unregister subscription stats from JMX: " + e);
+        }
     }
 
 }
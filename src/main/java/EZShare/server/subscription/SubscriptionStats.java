@@ -0,0 +1,89 @@
+package EZShare.server.subscription;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of all {@link OutboundQueue}s of a subscription service.
+ * Thread-safe.
+ *
+ * Created on 2026/10/18.
+ */
+class SubscriptionStats implements SubscriptionStatsMXBean {
+    private final OverflowPolicy policy;
+    private final int queueCapacity;
+    private final Set<OutboundQueue> queues = ConcurrentHashMap.newKeySet();
+    final LongAdder delivered = new LongAdder();
+    final LongAdder dropped = new LongAdder();
+    final LongAdder coalesced = new LongAdder();
+    final LongAdder disconnected = new LongAdder();
+    final LongAdder duplicates = new LongAdder();
+
+    SubscriptionStats(OverflowPolicy policy, int queueCapacity) {
+        this.policy = policy;
+        this.queueCapacity = queueCapacity;
+    }
+
+    OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    void add(OutboundQueue queue) {
+        queues.add(queue);
+    }
+
+    void remove(OutboundQueue queue) {
+        queues.remove(queue);
+    }
+
+    @Override
+    public String getOverflowPolicy() {
+        return policy.name();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @Override
+    public int getSubscribers() {
+        return queues.size();
+    }
+
+    @Override
+    public int getQueuedResources() {
+        return queues.stream().mapToInt(OutboundQueue::getDepth).sum();
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        return queues.stream().mapToInt(OutboundQueue::getDepth).max().orElse(0);
+    }
+
+    @Override
+    public long getDeliveredResources() {
+        return delivered.sum();
+    }
+
+    @Override
+    public long getDroppedResources() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getCoalescedResources() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public long getDisconnectedSubscribers() {
+        return disconnected.sum();
+    }
+
+    @Override
+    public long getDuplicateNotifications() {
+        return duplicates.sum();
+    }
+}
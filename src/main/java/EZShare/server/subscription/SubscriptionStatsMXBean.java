@@ -0,0 +1,48 @@
+package EZShare.server.subscription;
+
+/**
+ * Outbound queues of subscribers, exposed by JMX under
+ * "EZShare:type=SubscriptionStats,port=[port]".
+ *
+ * Created on 2026/10/18.
+ */
+public interface SubscriptionStatsMXBean {
+    String getOverflowPolicy();
+
+    int getQueueCapacity();
+
+    int getSubscribers();
+
+    /**
+     * @return resources waiting to be sent, of all subscribers.
+     */
+    int getQueuedResources();
+
+    /**
+     * @return length of the longest queue.
+     */
+    int getMaxQueueDepth();
+
+    long getDeliveredResources();
+
+    /**
+     * @return resources dropped since queues were full.
+     */
+    long getDroppedResources();
+
+    /**
+     * @return resources replaced by newer ones with the same channel & URI.
+     */
+    long getCoalescedResources();
+
+    /**
+     * @return subscribers closed since their queues were full.
+     */
+    long getDisconnectedSubscribers();
+
+    /**
+     * @return notifications from other servers dropped, since they were
+     * seen already or looped back.
+     */
+    long getDuplicateNotifications();
+}